@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Fixed set of images used by the benchmarks. They are generated with a fixed seed,
+ * so every run decodes exactly the same bytes.
+ */
+final class BenchmarkCorpus {
+
+    private static final long SEED = 0x1d6e5L;
+    // Noise keeps the compression ratio close to the one of a photo
+    private static final int NOISE = 24;
+
+    private final List<Image> images;
+
+    private BenchmarkCorpus(List<Image> images) {
+        this.images = images;
+    }
+
+    /**
+     * Generate the corpus: camera, screenshot and panorama sizes, as JPEG and PNG.
+     */
+    static BenchmarkCorpus generate() throws IOException {
+        List<Image> images = new ArrayList<>();
+        Random random = new Random(SEED);
+        int[][] sizes = {{1280, 960}, {4032, 3024}, {8000, 2000}};
+        String[] names = {"small", "camera", "panorama"};
+        String[] formats = {"jpeg", "png"};
+        for (int i = 0; i < sizes.length; i++) {
+            BufferedImage pixels = render(sizes[i][0], sizes[i][1], random);
+            for (String format : formats) {
+                images.add(new Image(names[i] + "." + format, format, encode(pixels, format)));
+            }
+        }
+        return new BenchmarkCorpus(Collections.unmodifiableList(images));
+    }
+
+    List<Image> getImages() {
+        return images;
+    }
+
+    /**
+     * @return image of the corpus with the given name.
+     */
+    Image get(String name) {
+        for (Image image : images) {
+            if (image.getName().equals(name)) {
+                return image;
+            }
+        }
+        throw new IllegalArgumentException("No image named " + name);
+    }
+
+    private static BufferedImage render(int width, int height, Random random) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = clamp(255 * x / width + random.nextInt(NOISE));
+                int green = clamp(255 * y / height + random.nextInt(NOISE));
+                int blue = clamp(128 + random.nextInt(NOISE));
+                row[x] = red << 16 | green << 8 | blue;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    private static int clamp(int value) {
+        return Math.min(255, Math.max(0, value));
+    }
+
+    private static byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, format, out)) {
+            throw new IOException("No writer for " + format);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encoded image of the corpus.
+     */
+    static final class Image {
+
+        private final String name;
+        private final String format;
+        private final byte[] bytes;
+
+        Image(String name, String format, byte[] bytes) {
+            this.name = name;
+            this.format = format;
+            this.bytes = bytes;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        String getFormat() {
+            return format;
+        }
+
+        byte[] getBytes() {
+            return bytes;
+        }
+    }
+}
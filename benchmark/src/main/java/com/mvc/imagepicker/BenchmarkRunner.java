@@ -0,0 +1,275 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Runs the benchmarks and compares them with a baseline. Each benchmark reports its throughput,
+ * the 50th, 90th and 99th percentiles of its latency and the bytes allocated per operation.
+ * The process exits with an error if the median latency or the allocations regressed more than
+ * the allowed fraction, or if there is no baseline to compare with, so the Gradle task fails.
+ * Latencies are only comparable between runs on the same machine, record the baseline where the
+ * benchmarks are checked.
+ */
+public final class BenchmarkRunner {
+
+    private static final int WARMUP_ITERATIONS = 10;
+    private static final int MEASURED_ITERATIONS = 40;
+    private static final TargetSize TARGET_SIZE = TargetSize.fit(1080, 1080);
+    private static final int[] ROTATIONS = {90, 180, 270};
+
+    private static final String P50_SUFFIX = ".p50Nanos";
+    private static final String ALLOCATED_SUFFIX = ".allocatedBytes";
+
+    private BenchmarkRunner() {
+        // not called
+    }
+
+    public static void main(String[] args) throws Exception {
+        File baseline = null;
+        File report = null;
+        double maxRegression = 0.2;
+        boolean updateBaseline = false;
+        for (int i = 0; i < args.length; i++) {
+            if ("--baseline".equals(args[i])) {
+                baseline = new File(args[++i]);
+            } else if ("--report".equals(args[i])) {
+                report = new File(args[++i]);
+            } else if ("--max-regression".equals(args[i])) {
+                maxRegression = Double.parseDouble(args[++i]);
+            } else if ("--update-baseline".equals(args[i])) {
+                updateBaseline = true;
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        List<Measurement> measurements = run(BenchmarkCorpus.generate());
+        Properties results = toProperties(measurements);
+        if (report != null) {
+            store(results, report);
+        }
+        if (baseline == null) {
+            return;
+        }
+        if (updateBaseline) {
+            store(results, baseline);
+            System.out.println("Baseline updated: " + baseline);
+        } else if (!baseline.exists()) {
+            // Passing without a baseline would hide every regression
+            System.err.println("NO BASELINE at " + baseline + ", nothing was checked."
+                    + " Run with -PupdateBaseline to record one on this machine");
+            System.exit(1);
+        } else {
+            List<String> regressions = compare(results, load(baseline), maxRegression);
+            for (String regression : regressions) {
+                System.err.println("REGRESSION " + regression);
+            }
+            if (!regressions.isEmpty()) {
+                System.exit(1);
+            }
+        }
+    }
+
+    private static List<Measurement> run(BenchmarkCorpus corpus) throws Exception {
+        List<Measurement> measurements = new ArrayList<>();
+        System.out.println(String.format(Locale.US, "%-24s %10s %10s %10s %10s %12s",
+                "benchmark", "ops/s", "p50 ms", "p90 ms", "p99 ms", "alloc KB/op"));
+        for (final BenchmarkCorpus.Image image : corpus.getImages()) {
+            measurements.add(measure("decode/" + image.getName(), new Operation() {
+                @Override
+                public void run() throws IOException {
+                    PipelineBenchmarks.decode(image, 0, TARGET_SIZE);
+                }
+            }));
+        }
+
+        final BenchmarkCorpus.Image camera = corpus.get("camera.jpeg");
+        for (final int rotation : ROTATIONS) {
+            measurements.add(measure("decodeRotated/" + rotation, new Operation() {
+                @Override
+                public void run() throws IOException {
+                    PipelineBenchmarks.decodeRotated(camera, rotation, TARGET_SIZE);
+                }
+            }));
+        }
+
+        final BufferedImage decoded = PipelineBenchmarks.decode(camera, 0, TARGET_SIZE);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        measurements.add(measure("encode/jpeg", new Operation() {
+            @Override
+            public void run() throws IOException {
+                PipelineBenchmarks.encodeJpeg(decoded, out);
+            }
+        }));
+        return measurements;
+    }
+
+    private static Measurement measure(String name, Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.run();
+        }
+        long[] latencies = new long[MEASURED_ITERATIONS];
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long begin = System.nanoTime();
+            operation.run();
+            latencies[i] = System.nanoTime() - begin;
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBefore >= 0 ? (getAllocatedBytes() - allocatedBefore) / MEASURED_ITERATIONS : -1;
+
+        Arrays.sort(latencies);
+        Measurement measurement = new Measurement(name, MEASURED_ITERATIONS * 1e9 / elapsed,
+                percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99), allocated);
+        System.out.println(measurement);
+        return measurement;
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * @return bytes allocated by this thread, or -1 if the JVM cannot measure them.
+     */
+    private static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static Properties toProperties(List<Measurement> measurements) {
+        Properties properties = new Properties();
+        for (Measurement measurement : measurements) {
+            properties.setProperty(measurement.name + P50_SUFFIX, String.valueOf(measurement.p50Nanos));
+            properties.setProperty(measurement.name + ".p90Nanos", String.valueOf(measurement.p90Nanos));
+            properties.setProperty(measurement.name + ".p99Nanos", String.valueOf(measurement.p99Nanos));
+            properties.setProperty(measurement.name + ".opsPerSecond",
+                    String.format(Locale.US, "%.2f", measurement.opsPerSecond));
+            properties.setProperty(measurement.name + ALLOCATED_SUFFIX, String.valueOf(measurement.allocatedBytes));
+        }
+        return properties;
+    }
+
+    /**
+     * @return description of the values which grew more than the allowed fraction over the baseline.
+     */
+    private static List<String> compare(Properties results, Properties baseline, double maxRegression) {
+        List<String> regressions = new ArrayList<>();
+        for (String key : results.stringPropertyNames()) {
+            if (!key.endsWith(P50_SUFFIX) && !key.endsWith(ALLOCATED_SUFFIX)) {
+                continue;
+            }
+            String expected = baseline.getProperty(key);
+            if (expected == null) {
+                continue;
+            }
+            long baselineValue = Long.parseLong(expected);
+            long value = Long.parseLong(results.getProperty(key));
+            if (baselineValue > 0 && value > baselineValue * (1 + maxRegression)) {
+                regressions.add(String.format(Locale.US, "%s: %d -> %d (+%.0f%%)", key, baselineValue, value,
+                        100.0 * (value - baselineValue) / baselineValue));
+            }
+        }
+        return regressions;
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    private static void store(Properties properties, File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, "ImagePicker host benchmarks");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Code whose time is measured.
+     */
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    /**
+     * Result of a benchmark.
+     */
+    private static final class Measurement {
+
+        private static final double NANOS_PER_MILLI = 1e6;
+
+        private final String name;
+        private final double opsPerSecond;
+        private final long p50Nanos;
+        private final long p90Nanos;
+        private final long p99Nanos;
+        private final long allocatedBytes;
+
+        Measurement(String name, double opsPerSecond, long p50Nanos, long p90Nanos, long p99Nanos,
+                    long allocatedBytes) {
+            this.name = name;
+            this.opsPerSecond = opsPerSecond;
+            this.p50Nanos = p50Nanos;
+            this.p90Nanos = p90Nanos;
+            this.p99Nanos = p99Nanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-24s %10.1f %10.2f %10.2f %10.2f %12d", name, opsPerSecond,
+                    p50Nanos / NANOS_PER_MILLI, p90Nanos / NANOS_PER_MILLI, p99Nanos / NANOS_PER_MILLI,
+                    allocatedBytes / 1024);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Host versions of the decode and rotate paths of the picker. ImageIO stands in for BitmapFactory,
+ * BitmapRegionDecoder and Canvas, but the sample size, the final size, the strips and the row reversal
+ * are computed by {@link DecodeSizing} and {@link RotationPlan} exactly as in the library, so a change
+ * which decodes more pixels or strips than needed shows up as a regression.
+ */
+final class PipelineBenchmarks {
+
+    private static final int JPEG_QUALITY = 80;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private PipelineBenchmarks() {
+        // not called
+    }
+
+    /**
+     * Decode the image subsampled and scaled to the target size, as BitmapFactoryEngine.decodeBitmap() does.
+     *
+     * @param rotation degrees of rotation of the image, the target size refers to the rotated image.
+     */
+    static BufferedImage decode(BenchmarkCorpus.Image image, int rotation, TargetSize targetSize)
+            throws IOException {
+        ImageReader reader = getReader(image.getFormat());
+        ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(image.getBytes()));
+        try {
+            reader.setInput(in, true, true);
+            Sizing sizing = new Sizing(reader.getWidth(0), reader.getHeight(0), rotation, targetSize);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(sizing.sampleSize, sizing.sampleSize, 0, 0);
+            BufferedImage sampled = reader.read(0, param);
+            if (sizing.scale == 1f) {
+                return toIntRgb(sampled);
+            }
+            return scale(sampled, DecodeSizing.scale(sampled.getWidth(), sizing.scale),
+                    DecodeSizing.scale(sampled.getHeight(), sizing.scale));
+        } finally {
+            reader.dispose();
+            in.close();
+        }
+    }
+
+    /**
+     * Decode the image with the rotation applied, as ImageRotator.decodeRotated() does: 180º is
+     * decoded and flipped in place row by row, 90º and 270º are decoded in strips drawn rotated
+     * into the final image.
+     */
+    static BufferedImage decodeRotated(BenchmarkCorpus.Image image, int degrees, TargetSize targetSize)
+            throws IOException {
+        switch (degrees) {
+            case 90:
+            case 270:
+                return decodeRotatedStrips(image, degrees, targetSize);
+            case 180:
+                BufferedImage decoded = decode(image, degrees, targetSize);
+                rotateInPlace180(decoded);
+                return decoded;
+            default:
+                return decode(image, degrees, targetSize);
+        }
+    }
+
+    /**
+     * Compress the image as JPEG with ImageIO. This is not ImageUtils.savePicture(), which only hands
+     * the bitmap to Bitmap.compress(): it is the reference cost of encoding the decoded images, so a
+     * change in their size shows up here.
+     *
+     * @return size of the compressed image in bytes.
+     */
+    static int encodeJpeg(BufferedImage image, ByteArrayOutputStream out) throws IOException {
+        out.reset();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageOutputStream stream = ImageIO.createImageOutputStream(out);
+        try {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY / 100f);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+            stream.close();
+        }
+        return out.size();
+    }
+
+    private static void rotateInPlace180(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int[] top = new int[width];
+        int[] bottom = new int[width];
+        for (int y = 0; y < (height + 1) / 2; y++) {
+            int mirrorY = height - 1 - y;
+            System.arraycopy(pixels, y * width, top, 0, width);
+            System.arraycopy(pixels, mirrorY * width, bottom, 0, width);
+            RotationPlan.rotateRows180(top, bottom);
+            System.arraycopy(bottom, 0, pixels, y * width, width);
+            System.arraycopy(top, 0, pixels, mirrorY * width, width);
+        }
+    }
+
+    private static BufferedImage decodeRotatedStrips(BenchmarkCorpus.Image image, int degrees,
+                                                     TargetSize targetSize) throws IOException {
+        ImageReader reader = getReader(image.getFormat());
+        ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(image.getBytes()));
+        try {
+            // Every strip is read from the same input, as the region decoder does
+            reader.setInput(in, false, true);
+            int sourceWidth = reader.getWidth(0);
+            int sourceHeight = reader.getHeight(0);
+            Sizing sizing = new Sizing(sourceWidth, sourceHeight, degrees, targetSize);
+            int sampleSize = sizing.sampleSize;
+            int sampledWidth = Math.max(1, sourceWidth / sampleSize);
+            int sampledHeight = Math.max(1, sourceHeight / sampleSize);
+
+            BufferedImage rotated = new BufferedImage(DecodeSizing.scale(sampledHeight, sizing.scale),
+                    DecodeSizing.scale(sampledWidth, sizing.scale), BufferedImage.TYPE_INT_RGB);
+            int strips = RotationPlan.getStripCount(
+                    (long) rotated.getWidth() * rotated.getHeight() * BYTES_PER_PIXEL);
+            int stripRows = RotationPlan.getStripRows(sampledHeight, strips, sampleSize);
+
+            Graphics2D graphics = rotated.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(sampleSize, sampleSize, 0, 0);
+            try {
+                for (int top = 0; top < sourceHeight; top += stripRows) {
+                    int bottom = Math.min(sourceHeight, top + stripRows);
+                    param.setSourceRegion(new Rectangle(0, top, sourceWidth, bottom - top));
+                    BufferedImage strip = reader.read(0, param);
+
+                    // Same transformation as the Matrix of the library: rotate, translate, then scale
+                    AffineTransform transform = AffineTransform.getScaleInstance(sizing.scale, sizing.scale);
+                    transform.translate(RotationPlan.getStripTranslateX(degrees, top, sampleSize, sampledHeight),
+                            RotationPlan.getStripTranslateY(degrees, sampledWidth));
+                    transform.rotate(Math.toRadians(degrees));
+                    graphics.drawImage(strip, transform, null);
+                }
+            } finally {
+                graphics.dispose();
+            }
+            return rotated;
+        } finally {
+            reader.dispose();
+            in.close();
+        }
+    }
+
+    private static ImageReader getReader(String format) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(format);
+        if (!readers.hasNext()) {
+            throw new IOException("No reader for " + format);
+        }
+        return readers.next();
+    }
+
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+        return scaled;
+    }
+
+    private static BufferedImage toIntRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            return image;
+        }
+        return scale(image, image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * Sample size and density scale which BitmapFactoryEngine.decodeBitmap() passes to the decoder.
+     */
+    private static final class Sizing {
+
+        private final int sampleSize;
+        private final float scale;
+
+        Sizing(int width, int height, int rotation, TargetSize targetSize) {
+            // Target size refers to the rotated image
+            boolean swapSides = rotation == 90 || rotation == 270;
+            int sourceWidth = swapSides ? height : width;
+            int sourceHeight = swapSides ? width : height;
+
+            float targetScale = DecodeSizing.getScale(sourceWidth, sourceHeight, targetSize);
+            int targetWidth = DecodeSizing.scale(sourceWidth, targetScale);
+            int targetHeight = DecodeSizing.scale(sourceHeight, targetScale);
+            sampleSize = DecodeSizing.getSampleSize(sourceWidth, sourceHeight, targetWidth, targetHeight);
+            int sampledWidth = sourceWidth / sampleSize;
+            scale = targetSize.isScaledInDecoder() && sampledWidth > targetWidth
+                    ? (float) targetWidth / sampledWidth : 1f;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Decodes with {@link BitmapFactory}, available on every version. The image is opened once:
+ * the EXIF orientation and the bounds are read from its header, and the pixels are decoded
+ * into pooled bitmaps when there is a {@link BitmapPool}.
+ */
+final class BitmapFactoryEngine implements DecoderEngine {
+
+    private static final String TAG = BitmapFactoryEngine.class.getSimpleName();
+
+    @Override
+    public Bitmap decode(Context context, Uri uri, boolean isCamera, TargetSize targetSize, @Nullable BitmapPool pool,
+                         @Nullable PickTrace trace) throws IOException {
+        ImageSource source = ImageSource.open(context, uri, targetSize.isThumbnail(), trace);
+        try {
+            int rotation;
+            if (source.hasOrientation() || isCamera) {
+                rotation = source.getRotation();
+            } else {
+                rotation = ImageRotator.getRotationFromGallery(context, uri);
+            }
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Image rotation: " + rotation);
+            }
+
+            Bitmap bm = null;
+            if (targetSize.isThumbnail()) {
+                bm = ThumbnailLoader.load(context, source, rotation, targetSize);
+            }
+            if (bm == null) {
+                bm = decodeBitmap(source, rotation, targetSize, pool);
+            }
+            return bm;
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Loads a bitmap and avoids using too much memory loading big images (e.g.: 2560*1920).
+     * The image is subsampled by a power of two and then scaled by the decoder to the target size.
+     * The rotation is applied while decoding.
+     */
+    private static Bitmap decodeBitmap(ImageSource source, int rotation, TargetSize targetSize,
+                                       @Nullable BitmapPool pool) throws IOException {
+        // Target size refers to the rotated image
+        boolean swapSides = rotation == 90 || rotation == 270;
+        int sourceWidth = swapSides ? source.getHeight() : source.getWidth();
+        int sourceHeight = swapSides ? source.getWidth() : source.getHeight();
+
+        float scale = DecodeSizing.getScale(sourceWidth, sourceHeight, targetSize);
+        int targetWidth = DecodeSizing.scale(sourceWidth, scale);
+        int targetHeight = DecodeSizing.scale(sourceHeight, scale);
+        int sampleSize = DecodeSizing.getSampleSize(sourceWidth, sourceHeight, targetWidth, targetHeight);
+        PickTrace.setSampleSize(source.getTrace(), sampleSize);
+
+        // Decode bitmap at desired size
+        BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+        decodeOptions.inSampleSize = sampleSize;
+        int sampledWidth = sourceWidth / sampleSize;
+        boolean scaled = targetSize.isScaledInDecoder() && sampledWidth > targetWidth;
+        if (scaled) {
+            // The decoder scales by inTargetDensity / inDensity after subsampling
+            decodeOptions.inScaled = true;
+            decodeOptions.inDensity = sampledWidth;
+            decodeOptions.inTargetDensity = targetWidth;
+        }
+        // Hardware bitmaps cannot be rotated, cropped nor reused
+        boolean hardwareAllowed = rotation == 0 && pool == null && targetSize.getScaleMode() != ScaleMode.EXACT;
+        decodeOptions.inPreferredConfig = targetSize.getUsage().getConfig(source.getMimeType(), hardwareAllowed);
+        Bitmap outputBitmap = ImageRotator.decodeRotated(source, decodeOptions, rotation, pool);
+        if (outputBitmap == null) {
+            return null;
+        }
+        if (scaled) {
+            // Do not let the fake densities scale the image again when it is drawn
+            outputBitmap.setDensity(Resources.getSystem().getDisplayMetrics().densityDpi);
+        }
+        if (targetSize.getScaleMode() == ScaleMode.EXACT) {
+            outputBitmap = cropCenter(outputBitmap, targetSize.getWidth(), targetSize.getHeight(), pool);
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Loaded image with sample size " + decodeOptions.inSampleSize + "\t\t"
+                    + "Config: " + outputBitmap.getConfig() + "\t"
+                    + "Bitmap width: " + outputBitmap.getWidth()
+                    + "\theight: " + outputBitmap.getHeight());
+        }
+        return outputBitmap;
+    }
+
+    /**
+     * Crop the center of the image, the given image is released if a new one is created.
+     */
+    private static Bitmap cropCenter(Bitmap bitmap, int width, int height, @Nullable BitmapPool pool) {
+        int croppedWidth = Math.min(width, bitmap.getWidth());
+        int croppedHeight = Math.min(height, bitmap.getHeight());
+        if (croppedWidth == bitmap.getWidth() && croppedHeight == bitmap.getHeight()) {
+            return bitmap;
+        }
+        int left = (bitmap.getWidth() - croppedWidth) / 2;
+        int top = (bitmap.getHeight() - croppedHeight) / 2;
+        Bitmap cropped;
+        if (pool == null) {
+            cropped = Bitmap.createBitmap(bitmap, left, top, croppedWidth, croppedHeight);
+        } else {
+            // Keep the cropped image mutable so it can go back to the pool
+            Bitmap.Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+            cropped = pool.get(croppedWidth, croppedHeight, config);
+            if (cropped == null) {
+                cropped = Bitmap.createBitmap(croppedWidth, croppedHeight, config);
+            } else {
+                cropped.eraseColor(Color.TRANSPARENT);
+            }
+            new Canvas(cropped).drawBitmap(bitmap, -left, -top, null);
+        }
+        if (cropped != bitmap) {
+            BitmapPool.release(pool, bitmap);
+        }
+        return cropped;
+    }
+}
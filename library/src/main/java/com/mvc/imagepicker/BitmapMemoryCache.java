@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Memory cache of decoded images, so a picked image opened again by several screens
+ * is only decoded once. Images are keyed by URI and target size, and the least recently
+ * used ones are dropped when the cache is full. The version of each image is resolved once
+ * per pick result, when it changes the cached images of its URI are dropped.
+ * <p>
+ * Cached bitmaps are shared: do not recycle them nor return them to a {@link BitmapPool}.
+ * Register the cache to release memory when the system asks for it:
+ * <pre>
+ * BitmapMemoryCache cache = BitmapMemoryCache.fromMemoryFraction(0.125f);
+ * getApplicationContext().registerComponentCallbacks(cache);
+ * ImagePicker.setMemoryCache(cache);
+ * </pre>
+ */
+public final class BitmapMemoryCache implements ComponentCallbacks2 {
+
+    private static final int MAX_VERSIONS = 256;
+    private static final char KEY_SEPARATOR = '|';
+
+    private final LruCache<String, Bitmap> cache;
+    // Last version seen of each URI, least recently used first, guarded by itself
+    private final Map<String, String> versions = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_VERSIONS;
+        }
+    };
+    // Bitmaps currently cached, to avoid recycling them
+    private final Set<Bitmap> cachedBitmaps = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+
+    /**
+     * @param maxBytes max size of the cached bitmaps.
+     */
+    public BitmapMemoryCache(int maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes <= 0");
+        }
+        cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                synchronized (cachedBitmaps) {
+                    cachedBitmaps.remove(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * Create a cache sized as a fraction of the max memory of the app.
+     *
+     * @param fraction fraction of {@link Runtime#maxMemory()}, e.g. 0.125 for an eighth.
+     * @return new cache.
+     */
+    public static BitmapMemoryCache fromMemoryFraction(float fraction) {
+        if (fraction <= 0 || fraction >= 1) {
+            throw new IllegalArgumentException("fraction must be between 0 and 1");
+        }
+        return new BitmapMemoryCache((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() * fraction));
+    }
+
+    /**
+     * Drop all the cached images. The bitmaps are not recycled, they may still be displayed.
+     */
+    public void clear() {
+        cache.evictAll();
+    }
+
+    public int getMaxSize() {
+        return cache.maxSize();
+    }
+
+    public int getCurrentSize() {
+        return cache.size();
+    }
+
+    public int getHitCount() {
+        return cache.hitCount();
+    }
+
+    public int getMissCount() {
+        return cache.missCount();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE) {
+            cache.evictAll();
+        } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW
+                || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        cache.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // not needed
+    }
+
+    @Override
+    public String toString() {
+        return "BitmapMemoryCache[size=" + cache.size() + "/" + cache.maxSize() + ", hits=" + cache.hitCount()
+                + ", misses=" + cache.missCount() + ", evictions=" + cache.evictionCount() + "]";
+    }
+
+    /**
+     * Get a cached image, dropping the cached images of the URI first if its version changed.
+     *
+     * @param version version of the image resolved for the pick result, null if the provider does not
+     *                report it: the images are then kept until they are evicted.
+     */
+    @Nullable
+    Bitmap get(Uri uri, @Nullable String version, TargetSize targetSize) {
+        String uriKey = uri.toString();
+        synchronized (versions) {
+            // A URI whose version was forgotten may still have images cached
+            if (!versions.containsKey(uriKey) || !isSameVersion(versions.get(uriKey), version)) {
+                invalidate(uriKey);
+                versions.put(uriKey, version);
+            }
+        }
+        String key = getKey(uriKey, targetSize);
+        Bitmap bitmap = cache.get(key);
+        if (bitmap != null && bitmap.isRecycled()) {
+            // Recycled by the app, decode it again
+            cache.remove(key);
+            return null;
+        }
+        return bitmap;
+    }
+
+    void put(Uri uri, TargetSize targetSize, Bitmap bitmap) {
+        if (bitmap.getByteCount() > cache.maxSize()) {
+            return;
+        }
+        synchronized (cachedBitmaps) {
+            cachedBitmaps.add(bitmap);
+        }
+        cache.put(getKey(uri.toString(), targetSize), bitmap);
+    }
+
+    /**
+     * @return true if the bitmap is cached and so it must not be recycled.
+     */
+    boolean contains(Bitmap bitmap) {
+        synchronized (cachedBitmaps) {
+            return cachedBitmaps.contains(bitmap);
+        }
+    }
+
+    private void invalidate(String uriKey) {
+        String prefix = uriKey + KEY_SEPARATOR;
+        for (String key : cache.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    private static String getKey(String uriKey, TargetSize targetSize) {
+        return uriKey + KEY_SEPARATOR + targetSize;
+    }
+
+    private static boolean isSameVersion(@Nullable String a, @Nullable String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
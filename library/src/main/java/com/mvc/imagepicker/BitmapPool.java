@@ -0,0 +1,244 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded pool of bitmaps which can be reused to decode new images with
+ * {@link android.graphics.BitmapFactory.Options#inBitmap}. Bitmaps are matched by width,
+ * height and config, and the least recently pooled ones are recycled when the pool is full.
+ * <p>
+ * Decoding into a pooled bitmap is only supported since KitKat, older versions never
+ * take bitmaps out of the pool.
+ * <pre>
+ * BitmapPool pool = new BitmapPool(16 * 1024 * 1024);
+ * ImagePicker.setBitmapPool(pool);
+ * ...
+ * // When the picked image is not displayed anymore
+ * pool.put(bitmap);
+ * </pre>
+ */
+public final class BitmapPool {
+
+    private final Map<Key, ArrayDeque<Bitmap>> groups = new HashMap<>();
+    // Pooled bitmaps, least recently pooled first
+    private final LinkedHashMap<Bitmap, Key> lru = new LinkedHashMap<>();
+    private long maxBytes;
+    private long currentBytes;
+
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    /**
+     * @param maxBytes max size of the pooled bitmaps.
+     */
+    public BitmapPool(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes <= 0");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Take a bitmap out of the pool.
+     *
+     * @param width  width of the bitmap.
+     * @param height height of the bitmap.
+     * @param config config of the bitmap.
+     * @return a mutable bitmap with undefined content, or null if there is none with that size.
+     */
+    @Nullable
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> group = groups.get(new Key(width, height, config));
+        Bitmap bitmap = group != null ? group.pollLast() : null;
+        if (bitmap == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        lru.remove(bitmap);
+        currentBytes -= getSize(bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Return a bitmap to the pool. The bitmap must not be used after calling this method.
+     *
+     * @param bitmap bitmap to pool.
+     * @return true if the bitmap was pooled, false if it was recycled because it cannot be reused.
+     */
+    public synchronized boolean put(Bitmap bitmap) {
+        if (bitmap.isRecycled() || lru.containsKey(bitmap)) {
+            return false;
+        }
+        if (!isReusable(bitmap) || getSize(bitmap) > maxBytes) {
+            bitmap.recycle();
+            return false;
+        }
+        long size = getSize(bitmap);
+        Key key = new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> group = groups.get(key);
+        if (group == null) {
+            group = new ArrayDeque<>();
+            groups.put(key, group);
+        }
+        group.addLast(bitmap);
+        lru.put(bitmap, key);
+        currentBytes += size;
+        trimToSize(maxBytes);
+        return true;
+    }
+
+    /**
+     * Change the max size of the pool, recycling bitmaps if needed.
+     *
+     * @param maxBytes new max size.
+     */
+    public synchronized void resize(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes <= 0");
+        }
+        this.maxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * Recycle all the pooled bitmaps.
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized long getMaxSize() {
+        return maxBytes;
+    }
+
+    public synchronized long getCurrentSize() {
+        return currentBytes;
+    }
+
+    /**
+     * @return times {@link #get(int, int, Bitmap.Config)} returned a bitmap.
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return times {@link #get(int, int, Bitmap.Config)} returned null.
+     */
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return number of bitmaps recycled to keep the pool under its max size.
+     */
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool[size=" + currentBytes + "/" + maxBytes + ", hits=" + hitCount
+                + ", misses=" + missCount + ", evictions=" + evictionCount + "]";
+    }
+
+    /**
+     * @return true if bitmaps can be decoded into pooled bitmaps on this device.
+     */
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    /**
+     * Return the bitmap to the pool if there is one, or recycle it otherwise.
+     */
+    static void release(@Nullable BitmapPool pool, Bitmap bitmap) {
+        if (pool != null) {
+            pool.put(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    private void trimToSize(long size) {
+        Iterator<Map.Entry<Bitmap, Key>> iterator = lru.entrySet().iterator();
+        while (currentBytes > size && iterator.hasNext()) {
+            Map.Entry<Bitmap, Key> eldest = iterator.next();
+            Bitmap bitmap = eldest.getKey();
+            iterator.remove();
+            ArrayDeque<Bitmap> group = groups.get(eldest.getValue());
+            group.remove(bitmap);
+            if (group.isEmpty()) {
+                groups.remove(eldest.getValue());
+            }
+            currentBytes -= getSize(bitmap);
+            bitmap.recycle();
+            evictionCount++;
+        }
+    }
+
+    private static boolean isReusable(Bitmap bitmap) {
+        return isSupported() && bitmap.isMutable() && bitmap.getConfig() != null;
+    }
+
+    private static long getSize(Bitmap bitmap) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                ? bitmap.getAllocationByteCount() : bitmap.getByteCount();
+    }
+
+    private static final class Key {
+
+        private final int width;
+        private final int height;
+        private final Bitmap.Config config;
+
+        Key(int width, int height, Bitmap.Config config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return width == key.width && height == key.height && config == key.config;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = width;
+            result = 31 * result + height;
+            result = 31 * result + (config != null ? config.hashCode() : 0);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.annotation.Nullable;
+
+/**
+ * What the picked image will be used for. It decides the pixel format of the decoded bitmap,
+ * see {@link TargetSize#withUsage(BitmapUsage)}.
+ */
+public enum BitmapUsage {
+
+    /**
+     * Full precision ARGB_8888 bitmap, its pixels can be read and modified. This is the default.
+     */
+    EDIT,
+
+    /**
+     * Thumbnails and previews: opaque images such as JPEGs are decoded as RGB_565,
+     * which takes half the memory.
+     */
+    PREVIEW,
+
+    /**
+     * Images which are only drawn on screen. Since Android O they are decoded as HARDWARE
+     * bitmaps, which are kept in graphics memory only. Their pixels cannot be read nor modified.
+     * On older versions it behaves like {@link #PREVIEW}.
+     */
+    DISPLAY;
+
+    private static final String MIME_TYPE_JPEG = "image/jpeg";
+
+    /**
+     * Select the config to decode an image.
+     *
+     * @param mimeType         MIME type of the source image, if known.
+     * @param hardwareAllowed  false if the decoded bitmap will be drawn into or modified.
+     * @return config to decode the image.
+     */
+    Bitmap.Config getConfig(@Nullable String mimeType, boolean hardwareAllowed) {
+        if (this == EDIT) {
+            return Bitmap.Config.ARGB_8888;
+        }
+        if (this == DISPLAY && hardwareAllowed && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return Bitmap.Config.HARDWARE;
+        }
+        // JPEG cannot have transparency, other formats may
+        return MIME_TYPE_JPEG.equals(mimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+}
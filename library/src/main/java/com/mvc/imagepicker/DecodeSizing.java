@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+/**
+ * Computes the sample size and the final size used to decode an image.
+ * All the sizes refer to the image with its rotation already applied.
+ */
+final class DecodeSizing {
+
+    private DecodeSizing() {
+        // not called
+    }
+
+    /**
+     * Get the scale which takes the source image to the target size. Images are never scaled up.
+     *
+     * @param sourceWidth  width of the source image.
+     * @param sourceHeight height of the source image.
+     * @param target       requested size.
+     * @return scale between 0 and 1.
+     */
+    static float getScale(int sourceWidth, int sourceHeight, TargetSize target) {
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            return 1f;
+        }
+        float widthScale = (float) target.getWidth() / sourceWidth;
+        float heightScale = (float) target.getHeight() / sourceHeight;
+        float scale = target.getScaleMode() == ScaleMode.FIT
+                ? Math.min(widthScale, heightScale) : Math.max(widthScale, heightScale);
+        return Math.min(1f, scale);
+    }
+
+    /**
+     * Get a size scaled by the given scale.
+     *
+     * @param size  size in pixels.
+     * @param scale scale from {@link #getScale(int, int, TargetSize)}.
+     * @return scaled size, at least 1 pixel.
+     */
+    static int scale(int size, float scale) {
+        return Math.max(1, Math.round(size * scale));
+    }
+
+    /**
+     * Get the biggest power of two which keeps the subsampled image over the destination size.
+     *
+     * @param sourceWidth       width of the source image.
+     * @param sourceHeight      height of the source image.
+     * @param destinationWidth  min width of the subsampled image.
+     * @param destinationHeight min height of the subsampled image.
+     * @return sample size.
+     */
+    static int getSampleSize(int sourceWidth, int sourceHeight, int destinationWidth, int destinationHeight) {
+        int width = Math.max(1, destinationWidth);
+        int height = Math.max(1, destinationHeight);
+        int sampleSize = 1;
+        while (sourceWidth / (sampleSize * 2) >= width && sourceHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Backend which decodes a picked image at the target size, with its orientation applied.
+ * See {@link BitmapFactoryEngine} and {@link ImageDecoderEngine}.
+ */
+interface DecoderEngine {
+
+    /**
+     * Decode the image.
+     *
+     * @param context    context.
+     * @param uri        URI of the image.
+     * @param isCamera   true if the image was taken by the camera app.
+     * @param targetSize requested size.
+     * @param pool       pool to take the bitmaps from, or null to allocate new ones.
+     * @param trace      trace of the load, or null to not measure it.
+     * @return decoded image, or null if it could not be decoded.
+     * @throws IOException if the image cannot be read.
+     */
+    @Nullable
+    Bitmap decode(Context context, Uri uri, boolean isCamera, TargetSize targetSize, @Nullable BitmapPool pool,
+                  @Nullable PickTrace trace) throws IOException;
+}
@@ -0,0 +1,477 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the EXIF orientation of JPEG, PNG, WebP and HEIF images from a stream. Only the
+ * container is walked until the EXIF data is found, and only the orientation entry of IFD0
+ * is parsed, so no tag is kept in memory and usually only the first few KB are read.
+ */
+final class ExifOrientationReader {
+
+    /**
+     * Orientation of images without EXIF orientation, same value as ExifInterface.
+     */
+    static final int ORIENTATION_UNDEFINED = 0;
+
+    private static final int MAX_ORIENTATION = 8;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TYPE_SHORT = 3;
+    private static final int TIFF_HEADER_SIZE = 8;
+    private static final int IFD_ENTRY_SIZE = 12;
+    private static final int BYTE_ORDER_LITTLE_ENDIAN = 0x4949;
+    private static final int BYTE_ORDER_BIG_ENDIAN = 0x4d4d;
+    private static final int TIFF_MAGIC = 42;
+
+    private static final int JPEG_SOI = 0xffd8;
+    private static final int JPEG_MARKER_APP1 = 0xe1;
+    private static final int JPEG_MARKER_SOS = 0xda;
+    private static final int JPEG_MARKER_EOI = 0xd9;
+    private static final byte[] EXIF_IDENTIFIER = {'E', 'x', 'i', 'f', 0, 0};
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int PNG_CRC_SIZE = 4;
+    private static final int PNG_EXIF = fourCc("eXIf");
+    private static final int PNG_IEND = fourCc("IEND");
+
+    private static final int RIFF = fourCc("RIFF");
+    private static final int WEBP = fourCc("WEBP");
+    private static final int WEBP_VP8X = fourCc("VP8X");
+    private static final int WEBP_EXIF = fourCc("EXIF");
+    private static final int WEBP_VP8X_FLAG_EXIF = 0x08;
+
+    private static final int HEIF_FTYP = fourCc("ftyp");
+    private static final int HEIF_META = fourCc("meta");
+    private static final int HEIF_IINF = fourCc("iinf");
+    private static final int HEIF_INFE = fourCc("infe");
+    private static final int HEIF_ILOC = fourCc("iloc");
+    private static final int HEIF_EXIF = fourCc("Exif");
+    // Boxes of the HEIF metadata are small, bigger ones are not read in memory
+    private static final int MAX_META_BOX_SIZE = 64 * 1024;
+
+    private static final int HEADER_SIZE = 12;
+
+    private final PushbackInputStream in;
+    private final long maxBytes;
+    private long position;
+
+    private ExifOrientationReader(InputStream in, long maxBytes) {
+        this.in = new PushbackInputStream(in, HEADER_SIZE);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Read the EXIF orientation of an image. The stream is left at an undefined position.
+     *
+     * @param in       stream at the beginning of the image.
+     * @param maxBytes max number of bytes to read, the orientation is undefined if it is further.
+     * @return EXIF orientation between 1 and 8, or {@link #ORIENTATION_UNDEFINED}.
+     * @throws IOException if the stream cannot be read.
+     */
+    static int read(InputStream in, long maxBytes) throws IOException {
+        try {
+            return new ExifOrientationReader(in, maxBytes).readOrientation();
+        } catch (EOFException e) {
+            // Truncated, not supported, or the EXIF is beyond the limit
+            return ORIENTATION_UNDEFINED;
+        }
+    }
+
+    private int readOrientation() throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        readFully(header);
+        in.unread(header);
+        position = 0;
+        if (((header[0] & 0xff) << 8 | header[1] & 0xff) == JPEG_SOI) {
+            skip(2);
+            return readJpeg();
+        }
+        if (startsWith(header, 0, PNG_SIGNATURE)) {
+            skip(PNG_SIGNATURE.length);
+            return readPng();
+        }
+        if (getInt(header, 0) == RIFF && getInt(header, 8) == WEBP) {
+            skip(HEADER_SIZE);
+            return readWebp();
+        }
+        if (getInt(header, 4) == HEIF_FTYP) {
+            return readHeif();
+        }
+        return ORIENTATION_UNDEFINED;
+    }
+
+    private int readJpeg() throws IOException {
+        while (true) {
+            if (readUnsignedByte() != 0xff) {
+                return ORIENTATION_UNDEFINED;
+            }
+            int marker = readUnsignedByte();
+            while (marker == 0xff) {
+                // Fill bytes
+                marker = readUnsignedByte();
+            }
+            if (marker == JPEG_MARKER_SOS || marker == JPEG_MARKER_EOI) {
+                // Metadata segments are before the image data
+                return ORIENTATION_UNDEFINED;
+            }
+            if (marker == 0x01 || marker >= 0xd0 && marker <= 0xd7) {
+                // Markers without length
+                continue;
+            }
+            int length = readUnsignedShort(false) - 2;
+            if (length < 0) {
+                return ORIENTATION_UNDEFINED;
+            }
+            if (marker == JPEG_MARKER_APP1 && length >= EXIF_IDENTIFIER.length) {
+                byte[] identifier = new byte[EXIF_IDENTIFIER.length];
+                readFully(identifier);
+                if (startsWith(identifier, 0, EXIF_IDENTIFIER)) {
+                    return readTiff(length - EXIF_IDENTIFIER.length);
+                }
+                length -= EXIF_IDENTIFIER.length;
+            }
+            skip(length);
+        }
+    }
+
+    private int readPng() throws IOException {
+        while (true) {
+            long length = readUnsignedInt(false);
+            int type = readInt();
+            if (type == PNG_EXIF) {
+                return readTiff(length);
+            }
+            if (type == PNG_IEND) {
+                return ORIENTATION_UNDEFINED;
+            }
+            skip(length + PNG_CRC_SIZE);
+        }
+    }
+
+    private int readWebp() throws IOException {
+        // Only the extended format has metadata, its first chunk tells if there is EXIF
+        if (readInt() != WEBP_VP8X) {
+            return ORIENTATION_UNDEFINED;
+        }
+        long vp8xSize = readUnsignedInt(true);
+        if ((readUnsignedByte() & WEBP_VP8X_FLAG_EXIF) == 0) {
+            return ORIENTATION_UNDEFINED;
+        }
+        skip(vp8xSize + (vp8xSize & 1) - 1);
+        while (true) {
+            int type = readInt();
+            long size = readUnsignedInt(true);
+            if (type == WEBP_EXIF) {
+                // Some encoders keep the identifier of the JPEG segment
+                byte[] identifier = new byte[EXIF_IDENTIFIER.length];
+                readFully(identifier);
+                if (startsWith(identifier, 0, EXIF_IDENTIFIER)) {
+                    return readTiff(size - EXIF_IDENTIFIER.length);
+                }
+                in.unread(identifier);
+                position -= identifier.length;
+                return readTiff(size);
+            }
+            // Chunks are padded to an even size
+            skip(size + (size & 1));
+        }
+    }
+
+    /**
+     * HEIF stores the EXIF as an item of the 'meta' box, whose data is usually in the 'mdat' box after it.
+     */
+    private int readHeif() throws IOException {
+        while (true) {
+            long size = readUnsignedInt(false);
+            int type = readInt();
+            long headerSize = 8;
+            if (size == 1) {
+                size = readLong();
+                headerSize += 8;
+            } else if (size == 0) {
+                return ORIENTATION_UNDEFINED;
+            }
+            if (size < headerSize) {
+                return ORIENTATION_UNDEFINED;
+            }
+            if (type != HEIF_META) {
+                skip(size - headerSize);
+                continue;
+            }
+            if (size - headerSize > MAX_META_BOX_SIZE) {
+                return ORIENTATION_UNDEFINED;
+            }
+            byte[] meta = new byte[(int) (size - headerSize)];
+            readFully(meta);
+            long[] exifExtent;
+            try {
+                exifExtent = findHeifExifExtent(ByteBuffer.wrap(meta));
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                // Malformed boxes
+                return ORIENTATION_UNDEFINED;
+            }
+            if (exifExtent == null || exifExtent[0] < position) {
+                return ORIENTATION_UNDEFINED;
+            }
+            skip(exifExtent[0] - position);
+            // The item starts with the offset of the TIFF header
+            long tiffOffset = readUnsignedInt(false);
+            if (tiffOffset + 4 > exifExtent[1]) {
+                return ORIENTATION_UNDEFINED;
+            }
+            skip(tiffOffset);
+            return readTiff(exifExtent[1] - 4 - tiffOffset);
+        }
+    }
+
+    /**
+     * @return offset and length of the EXIF item, or null if there is none.
+     */
+    private static long[] findHeifExifExtent(ByteBuffer meta) {
+        // Full box: version and flags
+        meta.position(4);
+        int exifItemId = -1;
+        ByteBuffer iloc = null;
+        while (meta.remaining() >= 8) {
+            int start = meta.position();
+            long size = meta.getInt() & 0xffffffffL;
+            int type = meta.getInt();
+            if (size < 8 || start + size > meta.limit()) {
+                return null;
+            }
+            ByteBuffer box = (ByteBuffer) meta.duplicate().position(start + 8).limit((int) (start + size));
+            if (type == HEIF_IINF) {
+                exifItemId = findHeifExifItemId(box);
+            } else if (type == HEIF_ILOC) {
+                iloc = box;
+            }
+            meta.position((int) (start + size));
+        }
+        return exifItemId >= 0 && iloc != null ? findHeifItemExtent(iloc, exifItemId) : null;
+    }
+
+    private static int findHeifExifItemId(ByteBuffer iinf) {
+        int version = iinf.get() & 0xff;
+        iinf.position(iinf.position() + 3);
+        long count = version == 0 ? iinf.getShort() & 0xffff : iinf.getInt() & 0xffffffffL;
+        for (long i = 0; i < count && iinf.remaining() >= 8; i++) {
+            int start = iinf.position();
+            long size = iinf.getInt() & 0xffffffffL;
+            int type = iinf.getInt();
+            if (size < 8 || start + size > iinf.limit()) {
+                return -1;
+            }
+            if (type == HEIF_INFE) {
+                int infeVersion = iinf.get() & 0xff;
+                iinf.position(iinf.position() + 3);
+                if (infeVersion >= 2) {
+                    int itemId = infeVersion == 2 ? iinf.getShort() & 0xffff : iinf.getInt();
+                    // Protection index
+                    iinf.getShort();
+                    if (iinf.getInt() == HEIF_EXIF) {
+                        return itemId;
+                    }
+                }
+            }
+            iinf.position((int) (start + size));
+        }
+        return -1;
+    }
+
+    private static long[] findHeifItemExtent(ByteBuffer iloc, int itemId) {
+        int version = iloc.get() & 0xff;
+        iloc.position(iloc.position() + 3);
+        int sizes = iloc.get() & 0xff;
+        int offsetSize = sizes >> 4;
+        int lengthSize = sizes & 0x0f;
+        sizes = iloc.get() & 0xff;
+        int baseOffsetSize = sizes >> 4;
+        int indexSize = version == 1 || version == 2 ? sizes & 0x0f : 0;
+        long count = version < 2 ? iloc.getShort() & 0xffff : iloc.getInt() & 0xffffffffL;
+        for (long i = 0; i < count; i++) {
+            int id = version < 2 ? iloc.getShort() & 0xffff : iloc.getInt();
+            int constructionMethod = 0;
+            if (version == 1 || version == 2) {
+                constructionMethod = iloc.getShort() & 0x0f;
+            }
+            // Data reference index
+            iloc.getShort();
+            long baseOffset = readSized(iloc, baseOffsetSize);
+            int extentCount = iloc.getShort() & 0xffff;
+            long[] extent = null;
+            for (int j = 0; j < extentCount; j++) {
+                readSized(iloc, indexSize);
+                long offset = readSized(iloc, offsetSize);
+                long length = readSized(iloc, lengthSize);
+                if (j == 0) {
+                    extent = new long[] {baseOffset + offset, length};
+                }
+            }
+            if (id == itemId) {
+                // Only items stored in the file as a single extent are supported
+                return constructionMethod == 0 && extentCount == 1 ? extent : null;
+            }
+        }
+        return null;
+    }
+
+    private static long readSized(ByteBuffer buffer, int size) {
+        switch (size) {
+            case 0:
+                return 0;
+            case 4:
+                return buffer.getInt() & 0xffffffffL;
+            case 8:
+                return buffer.getLong();
+            default:
+                throw new IllegalArgumentException("Invalid field size: " + size);
+        }
+    }
+
+    /**
+     * Read the orientation from IFD0 of the TIFF structure which starts at the current position.
+     *
+     * @param size size of the TIFF structure.
+     */
+    private int readTiff(long size) throws IOException {
+        int byteOrder = readUnsignedShort(false);
+        if (byteOrder != BYTE_ORDER_LITTLE_ENDIAN && byteOrder != BYTE_ORDER_BIG_ENDIAN) {
+            return ORIENTATION_UNDEFINED;
+        }
+        boolean littleEndian = byteOrder == BYTE_ORDER_LITTLE_ENDIAN;
+        if (readUnsignedShort(littleEndian) != TIFF_MAGIC) {
+            return ORIENTATION_UNDEFINED;
+        }
+        long ifdOffset = readUnsignedInt(littleEndian);
+        if (ifdOffset < TIFF_HEADER_SIZE || ifdOffset + 2 > size) {
+            return ORIENTATION_UNDEFINED;
+        }
+        skip(ifdOffset - TIFF_HEADER_SIZE);
+        int entries = readUnsignedShort(littleEndian);
+        long maxEntries = (size - ifdOffset - 2) / IFD_ENTRY_SIZE;
+        for (int i = 0; i < Math.min(entries, maxEntries); i++) {
+            // Entries should be sorted by tag, but some writers do not sort them, so all of them are read
+            int tag = readUnsignedShort(littleEndian);
+            if (tag != TAG_ORIENTATION) {
+                skip(IFD_ENTRY_SIZE - 2);
+                continue;
+            }
+            int type = readUnsignedShort(littleEndian);
+            long count = readUnsignedInt(littleEndian);
+            if (type != TYPE_SHORT || count < 1) {
+                return ORIENTATION_UNDEFINED;
+            }
+            int orientation = readUnsignedShort(littleEndian);
+            return orientation >= 1 && orientation <= MAX_ORIENTATION ? orientation : ORIENTATION_UNDEFINED;
+        }
+        return ORIENTATION_UNDEFINED;
+    }
+
+    private int readUnsignedByte() throws IOException {
+        if (position >= maxBytes) {
+            throw new EOFException("Limit of " + maxBytes + " bytes reached");
+        }
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        position++;
+        return b;
+    }
+
+    private int readUnsignedShort(boolean littleEndian) throws IOException {
+        int b0 = readUnsignedByte();
+        int b1 = readUnsignedByte();
+        return littleEndian ? b1 << 8 | b0 : b0 << 8 | b1;
+    }
+
+    private long readUnsignedInt(boolean littleEndian) throws IOException {
+        long s0 = readUnsignedShort(littleEndian);
+        long s1 = readUnsignedShort(littleEndian);
+        return littleEndian ? s1 << 16 | s0 : s0 << 16 | s1;
+    }
+
+    private int readInt() throws IOException {
+        return (int) readUnsignedInt(false);
+    }
+
+    private long readLong() throws IOException {
+        return readUnsignedInt(false) << 32 | readUnsignedInt(false);
+    }
+
+    private void readFully(byte[] buffer) throws IOException {
+        if (position + buffer.length > maxBytes) {
+            throw new EOFException("Limit of " + maxBytes + " bytes reached");
+        }
+        int offset = 0;
+        while (offset < buffer.length) {
+            int read = in.read(buffer, offset, buffer.length - offset);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+        position += buffer.length;
+    }
+
+    private void skip(long count) throws IOException {
+        if (count < 0 || position + count > maxBytes) {
+            throw new EOFException("Limit of " + maxBytes + " bytes reached");
+        }
+        long remaining = count;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                // skip() may return 0 before the end, read to tell them apart
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+        position += count;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, byte[] prefix) {
+        if (data.length < offset + prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getInt(byte[] data, int offset) {
+        return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16 | (data[offset + 2] & 0xff) << 8
+                | data[offset + 3] & 0xff;
+    }
+
+    private static int fourCc(String type) {
+        return type.charAt(0) << 24 | type.charAt(1) << 16 | type.charAt(2) << 8 | type.charAt(3);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Loads several picked images in parallel and delivers them one by one, in the order they
+ * were picked. The number of images decoded at the same time depends on the available memory,
+ * and no more images are decoded while the first pending one is not delivered, so a slow image
+ * never makes the finished ones pile up in memory.
+ * <p>
+ * All the state is accessed on the main thread.
+ */
+final class ImageBatchLoader {
+
+    private static final String TAG = ImageBatchLoader.class.getSimpleName();
+
+    private static final int BYTES_PER_PIXEL = 4;
+    // Peak memory of a decode compared to the target size: subsampled images can be up to
+    // twice the target size in each side, and rotating may need a second bitmap
+    private static final int SUBSAMPLED_PEAK_FACTOR = 8;
+    private static final int SCALED_PEAK_FACTOR = 2;
+
+    private final Context context;
+    private final ImagePicker.Config config;
+    private final List<Uri> uris;
+    private final boolean fromCamera;
+    private final TargetSize targetSize;
+    private final ImageRequest request;
+    private final int concurrency;
+
+    private final Bitmap[] results;
+    private final boolean[] loaded;
+    private int nextToSubmit;
+    private int nextToDeliver;
+
+    private ImageBatchLoader(Context context, ImagePicker.Config config, List<Uri> uris, boolean fromCamera,
+                             ImagePicker.OnImagesResultListener listener) {
+        this.context = context;
+        this.config = config;
+        this.uris = uris;
+        this.fromCamera = fromCamera;
+        this.targetSize = config.getTargetSize();
+        this.request = new ImageRequest(listener);
+        this.concurrency = getConcurrency(context, targetSize);
+        this.results = new Bitmap[uris.size()];
+        this.loaded = new boolean[uris.size()];
+    }
+
+    /**
+     * Start loading the images. Must be called on the main thread.
+     *
+     * @param context    context.
+     * @param config     settings the picker was launched with, including the size of the returned images.
+     * @param uris       picked images.
+     * @param fromCamera true if the image was taken from camera.
+     * @param listener   will receive the images.
+     * @return handle to cancel the load.
+     */
+    static ImageRequest load(Context context, ImagePicker.Config config, List<Uri> uris, boolean fromCamera,
+                             ImagePicker.OnImagesResultListener listener) {
+        ImageBatchLoader loader = new ImageBatchLoader(context, config, uris, fromCamera, listener);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Loading " + uris.size() + " images, " + loader.concurrency + " at the same time");
+        }
+        loader.submitPending();
+        if (uris.isEmpty()) {
+            loader.deliverLoaded();
+        }
+        return loader.request;
+    }
+
+    private void submitPending() {
+        while (!request.isCancelled() && nextToSubmit < uris.size()
+                && nextToSubmit < nextToDeliver + concurrency) {
+            submit(nextToSubmit++);
+        }
+    }
+
+    private void submit(final int position) {
+        request.addFuture(ImageExecutor.submitBatch(new Runnable() {
+            @Override
+            public void run() {
+                if (request.isCancelled()) {
+                    return;
+                }
+                Uri uri = uris.get(position);
+                String version = ImagePicker.getMemoryCacheVersion(context, config, uri, fromCamera);
+                final Bitmap bitmap = ImagePicker.loadImage(context, uri, fromCamera, version, targetSize, request);
+                ImageExecutor.postToMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (request.isCancelled()) {
+                            if (bitmap != null) {
+                                ImagePicker.discard(bitmap);
+                            }
+                            return;
+                        }
+                        results[position] = bitmap;
+                        loaded[position] = true;
+                        deliverLoaded();
+                    }
+                });
+            }
+        }));
+    }
+
+    private void deliverLoaded() {
+        while (nextToDeliver < uris.size() && loaded[nextToDeliver]) {
+            Bitmap bitmap = results[nextToDeliver];
+            results[nextToDeliver] = null;
+            ImagePicker.OnImagesResultListener listener = (ImagePicker.OnImagesResultListener) request.getListener();
+            if (listener != null) {
+                listener.onImageResult(nextToDeliver, uris.size(), bitmap);
+            } else if (bitmap != null) {
+                ImagePicker.discard(bitmap);
+            }
+            nextToDeliver++;
+        }
+        if (nextToDeliver == uris.size()) {
+            ImagePicker.OnImagesResultListener listener = (ImagePicker.OnImagesResultListener) request.getListener();
+            request.finish();
+            if (listener != null) {
+                listener.onComplete();
+            }
+        } else {
+            submitPending();
+        }
+    }
+
+    /**
+     * Get how many images can be decoded at the same time without running out of memory.
+     */
+    private static int getConcurrency(Context context, TargetSize targetSize) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && activityManager.isLowRamDevice()) {
+            return 1;
+        }
+        long availableBytes;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // Pixels are allocated in the native heap
+            ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+            activityManager.getMemoryInfo(memoryInfo);
+            availableBytes = (memoryInfo.availMem - memoryInfo.threshold) / 4;
+        } else {
+            Runtime runtime = Runtime.getRuntime();
+            availableBytes = (runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory())) / 2;
+        }
+        long decodeBytes = (long) BYTES_PER_PIXEL * targetSize.getWidth() * targetSize.getHeight()
+                * (targetSize.isScaledInDecoder() ? SCALED_PEAK_FACTOR : SUBSAMPLED_PEAK_FACTOR);
+        long concurrency = availableBytes / Math.max(1, decodeBytes);
+        return (int) Math.max(1, Math.min(ImageExecutor.getBatchPoolSize(), concurrency));
+    }
+}
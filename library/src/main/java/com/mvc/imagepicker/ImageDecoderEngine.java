@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.ImageDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Build;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.Size;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes with {@link ImageDecoder}, available since Android P. The image is opened once as an
+ * {@link ImageSource}, so the header stages and the bytes read are measured as with BitmapFactory,
+ * and the encoded image is then handed to the decoder: the size is chosen once it is known, the
+ * EXIF orientation is applied and the image is scaled and cropped while decoding.
+ * It also decodes HEIF images. It cannot decode into reused bitmaps nor read the EXIF
+ * thumbnail. Images it fails to decode, and gallery images whose rotation is only kept
+ * in the MediaStore, are decoded by the fallback engine.
+ */
+@TargetApi(Build.VERSION_CODES.P)
+final class ImageDecoderEngine implements DecoderEngine {
+
+    private static final String TAG = ImageDecoderEngine.class.getSimpleName();
+
+    private final DecoderEngine fallback;
+
+    ImageDecoderEngine(DecoderEngine fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public Bitmap decode(Context context, Uri uri, boolean isCamera, TargetSize targetSize, @Nullable BitmapPool pool,
+                         @Nullable PickTrace trace) throws IOException {
+        // Opened as BitmapFactoryEngine does, so the same stages and bytes are measured
+        ImageSource source = ImageSource.open(context, uri, false, trace);
+        ByteBuffer encoded = null;
+        long begin = 0;
+        try {
+            // ImageDecoder only applies the EXIF orientation, the MediaStore is only queried without one
+            if (isCamera || source.hasOrientation() || ImageRotator.getRotationFromGallery(context, uri) == 0) {
+                begin = PickTrace.begin(trace);
+                encoded = source.readFully();
+            }
+        } finally {
+            source.close();
+        }
+        if (encoded == null) {
+            return fallback.decode(context, uri, false, targetSize, pool, trace);
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = ImageDecoder.decodeBitmap(ImageDecoder.createSource(encoded), new SizeSelector(targetSize, trace));
+        } catch (ImageDecoder.DecodeException e) {
+            Log.w(TAG, "Could not decode " + uri + ", falling back to " + fallback.getClass().getSimpleName(), e);
+            return fallback.decode(context, uri, isCamera, targetSize, pool, trace);
+        }
+        // Reading the rest of the image is part of decoding, as with BitmapFactory
+        PickTrace.end(trace, ImagePickerMetrics.Stage.DECODE, begin);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Loaded image with config: " + bitmap.getConfig()
+                    + "\tBitmap width: " + bitmap.getWidth()
+                    + "\theight: " + bitmap.getHeight());
+        }
+        return bitmap;
+    }
+
+    /**
+     * Chooses the size, crop and allocator of the image once its header is decoded.
+     */
+    private static final class SizeSelector implements ImageDecoder.OnHeaderDecodedListener {
+
+        private final TargetSize targetSize;
+        @Nullable
+        private final PickTrace trace;
+
+        SizeSelector(TargetSize targetSize, @Nullable PickTrace trace) {
+            this.targetSize = targetSize;
+            this.trace = trace;
+        }
+
+        @Override
+        public void onHeaderDecoded(ImageDecoder decoder, ImageDecoder.ImageInfo info, ImageDecoder.Source source) {
+            // The size is already rotated by the EXIF orientation, as the target size
+            Size size = info.getSize();
+            int sourceWidth = size.getWidth();
+            int sourceHeight = size.getHeight();
+            float scale = DecodeSizing.getScale(sourceWidth, sourceHeight, targetSize);
+            int targetWidth = DecodeSizing.scale(sourceWidth, scale);
+            int targetHeight = DecodeSizing.scale(sourceHeight, scale);
+            int sampleSize = DecodeSizing.getSampleSize(sourceWidth, sourceHeight, targetWidth, targetHeight);
+            PickTrace.setSampleSize(trace, sampleSize);
+
+            // Same sizes as BitmapFactoryEngine: subsampled, and then scaled down unless only subsampling is wanted
+            int decodedWidth = (sourceWidth + sampleSize - 1) / sampleSize;
+            int decodedHeight = (sourceHeight + sampleSize - 1) / sampleSize;
+            if (targetSize.isScaledInDecoder() && decodedWidth > targetWidth) {
+                decodedWidth = targetWidth;
+                decodedHeight = targetHeight;
+            }
+            if (decodedWidth != sourceWidth || decodedHeight != sourceHeight) {
+                decoder.setTargetSize(decodedWidth, decodedHeight);
+            }
+            if (targetSize.getScaleMode() == ScaleMode.EXACT) {
+                int croppedWidth = Math.min(targetSize.getWidth(), decodedWidth);
+                int croppedHeight = Math.min(targetSize.getHeight(), decodedHeight);
+                int left = (decodedWidth - croppedWidth) / 2;
+                int top = (decodedHeight - croppedHeight) / 2;
+                decoder.setCrop(new Rect(left, top, left + croppedWidth, top + croppedHeight));
+            }
+
+            // Crops and rotations are done by the decoder, and pooled loads use the other engine,
+            // so hardware bitmaps are allowed
+            Bitmap.Config config = targetSize.getUsage().getConfig(info.getMimeType(), true);
+            if (config == Bitmap.Config.HARDWARE) {
+                decoder.setAllocator(ImageDecoder.ALLOCATOR_HARDWARE);
+            } else {
+                decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+                decoder.setConserveMemory(config == Bitmap.Config.RGB_565);
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Picked images saved in the external cache dir. Entries are named after a SHA-256 of the
+ * source URI, its size and last modification and the requested transform, so a repeated pick
+ * returns the saved file without decoding the image again. The least recently used entries
+ * are deleted when the cache grows over its budget. The access order is kept in memory, it is
+ * only restored from the modification times on start, since some external storages do not
+ * allow changing them.
+ */
+final class ImageDiskCache {
+
+    private static final String TAG = ImageDiskCache.class.getSimpleName();
+
+    static final long DEFAULT_MAX_SIZE = 50 * 1024 * 1024;
+
+    private static final String DIRECTORY = "imagepicker";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final String ORIGINAL = "original";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final String[] VERSION_PROJECTION = {OpenableColumns.SIZE, MediaStore.MediaColumns.DATE_MODIFIED};
+
+    private static volatile long maxSize = DEFAULT_MAX_SIZE;
+
+    // Names and sizes of the entries, least recently used first, guarded by ImageDiskCache.class
+    private static LinkedHashMap<String, Long> index;
+    private static File indexDirectory;
+    private static boolean lastModifiedUnsupported;
+
+    private ImageDiskCache() {
+        // not called
+    }
+
+    static void setMaxSize(long bytes) {
+        maxSize = bytes;
+    }
+
+    static long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the file of the cache entry for the given image and transform.
+     *
+     * @param context    context.
+     * @param uri        URI of the source image.
+     * @param targetSize size of the saved image, or null for a copy of the original bytes.
+     * @param extension  extension of the saved image.
+     * @return file of the entry, which may not exist yet, or null if the image cannot be cached.
+     */
+    @Nullable
+    static File getEntry(Context context, Uri uri, @Nullable TargetSize targetSize, String extension) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        File directory = getDirectory(context);
+        String version = getVersion(context, uri);
+        if (directory == null || version == null) {
+            return null;
+        }
+        String transform = targetSize == null ? ORIGINAL : targetSize.toString();
+        return new File(directory, sha256(uri + "|" + version + "|" + transform) + "." + extension);
+    }
+
+    /**
+     * @return true if the entry is cached. The entry becomes the most recently used one.
+     */
+    static synchronized boolean hit(File entry) {
+        if (!entry.isFile()) {
+            return false;
+        }
+        touch(entry);
+        Log.i(TAG, "Cache hit " + entry.getName());
+        return true;
+    }
+
+    /**
+     * @return file where the entry has to be written before being committed.
+     */
+    static File getTempFile(File entry) {
+        // Per thread, the same image can be saved twice at the same time
+        return new File(entry.getPath() + "." + Thread.currentThread().getId() + TEMP_EXTENSION);
+    }
+
+    /**
+     * Publish a written entry and evict the least recently used ones if needed.
+     *
+     * @return true if the entry was committed.
+     */
+    static synchronized boolean commit(File tempFile, File entry) {
+        if (!tempFile.renameTo(entry)) {
+            tempFile.delete();
+            return entry.isFile();
+        }
+        touch(entry);
+        trimToSize(entry.getParentFile(), maxSize);
+        return true;
+    }
+
+    /**
+     * Delete all the cached images.
+     */
+    static void clear(Context context) {
+        File directory = getDirectory(context);
+        if (directory != null) {
+            trimToSize(directory, 0);
+        }
+    }
+
+    /**
+     * @return hex SHA-256 of the given text.
+     */
+    static String sha256(String text) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-256").digest(text.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Make the entry the most recently used one.
+     */
+    private static void touch(File entry) {
+        Map<String, Long> entries = getIndex(entry.getParentFile());
+        // Re-inserted to move it to the end
+        entries.remove(entry.getName());
+        entries.put(entry.getName(), entry.length());
+        // Only used to restore the order on the next start
+        if (!entry.setLastModified(System.currentTimeMillis()) && !lastModifiedUnsupported) {
+            lastModifiedUnsupported = true;
+            Log.w(TAG, "Cannot set modification times in " + entry.getParent()
+                    + ", the access order is only kept while the app is running");
+        }
+    }
+
+    private static synchronized void trimToSize(File directory, long size) {
+        Map<String, Long> entries = getIndex(directory);
+        long total = 0;
+        for (long length : entries.values()) {
+            total += length;
+        }
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (total > size && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            File file = new File(directory, entry.getKey());
+            if (file.delete() || !file.exists()) {
+                total -= entry.getValue();
+                iterator.remove();
+            }
+        }
+        if (size == 0) {
+            // Clearing, also delete the entries which were being written
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the entries in access order. They are read from the directory the first time,
+     * ordered by their modification times.
+     */
+    private static Map<String, Long> getIndex(File directory) {
+        if (index != null && directory.equals(indexDirectory)) {
+            return index;
+        }
+        index = new LinkedHashMap<>();
+        indexDirectory = directory;
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return index;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (!file.getName().endsWith(TEMP_EXTENSION)) {
+                index.put(file.getName(), file.length());
+            }
+        }
+        return index;
+    }
+
+    @Nullable
+    private static File getDirectory(Context context) {
+        File cacheDir = context.getExternalCacheDir();
+        if (cacheDir == null) {
+            return null;
+        }
+        File directory = new File(cacheDir, DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return null;
+        }
+        return directory;
+    }
+
+    /**
+     * Get the size and last modification of the image, which change when the image is edited.
+     *
+     * @return version of the image, or null if it is unknown or the provider does not report
+     * when the image was modified.
+     */
+    @Nullable
+    static String getVersion(Context context, Uri uri) {
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            File file = new File(uri.getPath());
+            return file.isFile() ? file.length() + ":" + file.lastModified() : null;
+        }
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(uri, VERSION_PROJECTION, null, null, null);
+            if (cursor == null || !cursor.moveToFirst()) {
+                return null;
+            }
+            long size = getLong(cursor, OpenableColumns.SIZE);
+            long modified = getLong(cursor, MediaStore.MediaColumns.DATE_MODIFIED);
+            // The size alone does not change when the image is edited keeping its size
+            return modified > 0 ? size + ":" + modified : null;
+        } catch (RuntimeException e) {
+            // Some providers do not support queries
+            Log.w(TAG, "Could not query " + uri, e);
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        return index < 0 || cursor.isNull(index) ? 0 : cursor.getLong(index);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background threads used to decode picked images off the main thread.
+ * The pool is small on purpose: decoding is memory bound, so running many
+ * full-size decodes at once only makes OOMs more likely.
+ */
+final class ImageExecutor {
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final int POOL_SIZE = Math.max(1, Math.min(2, CPU_COUNT - 1));
+    // Batches limit their own concurrency depending on the available memory
+    private static final int BATCH_POOL_SIZE = Math.max(2, CPU_COUNT);
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private static ThreadPoolExecutor executor;
+    private static ThreadPoolExecutor batchExecutor;
+    private static ThreadPoolExecutor encodeExecutor;
+
+    private ImageExecutor() {
+        // not called
+    }
+
+    /**
+     * Queue a task on the decode pool.
+     *
+     * @param task work to run in background.
+     * @return future of the queued task.
+     */
+    static Future<?> submit(Runnable task) {
+        return getExecutor().submit(task);
+    }
+
+    /**
+     * Queue a task of a batch of images.
+     *
+     * @param task work to run in background.
+     * @return future of the queued task.
+     */
+    static Future<?> submitBatch(Runnable task) {
+        return getBatchExecutor().submit(task);
+    }
+
+    /**
+     * Run a task which encodes an image into a stream. They wait for the consumer of the stream,
+     * so each one gets its own thread instead of blocking the decodes.
+     *
+     * @param task work to run in background.
+     * @return future of the task.
+     */
+    static Future<?> submitEncode(Runnable task) {
+        return getEncodeExecutor().submit(task);
+    }
+
+    /**
+     * @return max number of batch tasks which can run at the same time.
+     */
+    static int getBatchPoolSize() {
+        return BATCH_POOL_SIZE;
+    }
+
+    /**
+     * Run the given action on the main thread.
+     */
+    static void postToMainThread(Runnable action) {
+        MAIN_HANDLER.post(action);
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = newExecutor(POOL_SIZE, "ImagePicker-decode-");
+        }
+        return executor;
+    }
+
+    private static synchronized ThreadPoolExecutor getBatchExecutor() {
+        if (batchExecutor == null) {
+            batchExecutor = newExecutor(BATCH_POOL_SIZE, "ImagePicker-batch-");
+        }
+        return batchExecutor;
+    }
+
+    private static synchronized ThreadPoolExecutor getEncodeExecutor() {
+        if (encodeExecutor == null) {
+            encodeExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new DecodeThreadFactory("ImagePicker-encode-"));
+        }
+        return encodeExecutor;
+    }
+
+    private static ThreadPoolExecutor newExecutor(int poolSize, String threadPrefix) {
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DecodeThreadFactory(threadPrefix));
+        threadPool.allowCoreThreadTimeOut(true);
+        return threadPool;
+    }
+
+    private static final class DecodeThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+        private final String prefix;
+
+        DecodeThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.support.media.ExifInterface;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exports a picked image ready to be uploaded: it is decoded at the target size, rotated and
+ * compressed straight into a file or stream. Exporters are immutable, configure them with the
+ * {@code with...()} methods:
+ * <pre>
+ * ImageExporter.Result result = ImageExporter.jpeg(85)
+ *         .withMaxDimension(2048)
+ *         .withMaxBytes(500 * 1024)
+ *         .withExifTags(ExifInterface.TAG_DATETIME_ORIGINAL, ExifInterface.TAG_MAKE, ExifInterface.TAG_MODEL)
+ *         .export(context, uri, file);
+ * </pre>
+ */
+public final class ImageExporter {
+
+    private static final String TAG = ImageExporter.class.getSimpleName();
+
+    private static final TargetSize ORIGINAL_SIZE = TargetSize.fit(Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    private final Bitmap.CompressFormat format;
+    private final int quality;
+    private final TargetSize targetSize;
+    private final long maxBytes;
+    private final String[] exifTags;
+
+    private ImageExporter(Bitmap.CompressFormat format, int quality, TargetSize targetSize, long maxBytes,
+                          String[] exifTags) {
+        if (quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("Invalid quality: " + quality);
+        }
+        this.format = format;
+        this.quality = quality;
+        this.targetSize = targetSize;
+        this.maxBytes = maxBytes;
+        this.exifTags = exifTags;
+    }
+
+    /**
+     * @param quality JPEG quality, from 0 to 100.
+     * @return exporter which saves JPEGs at the original size.
+     */
+    public static ImageExporter jpeg(int quality) {
+        return new ImageExporter(Bitmap.CompressFormat.JPEG, quality, ORIGINAL_SIZE, 0, new String[0]);
+    }
+
+    /**
+     * @param quality WebP quality, from 0 to 100.
+     * @return exporter which saves WebPs at the original size.
+     */
+    public static ImageExporter webp(int quality) {
+        return new ImageExporter(Bitmap.CompressFormat.WEBP, quality, ORIGINAL_SIZE, 0, new String[0]);
+    }
+
+    /**
+     * @return exporter which saves PNGs at the original size.
+     */
+    public static ImageExporter png() {
+        return new ImageExporter(Bitmap.CompressFormat.PNG, 100, ORIGINAL_SIZE, 0, new String[0]);
+    }
+
+    /**
+     * @param targetSize size of the exported image.
+     * @return exporter with the given size.
+     */
+    public ImageExporter withTargetSize(TargetSize targetSize) {
+        return new ImageExporter(format, quality, targetSize, maxBytes, exifTags);
+    }
+
+    /**
+     * @param maxDimension max width and height of the exported image.
+     * @return exporter with the given size.
+     */
+    public ImageExporter withMaxDimension(int maxDimension) {
+        return withTargetSize(TargetSize.fit(maxDimension, maxDimension));
+    }
+
+    /**
+     * Lower the quality until the exported image takes at most the given size, scaling it down
+     * if even the lowest quality is too big. PNGs are only scaled down.
+     * See {@link ImageUtils#compressToSize(Bitmap, Bitmap.CompressFormat, int, long, OutputStream)}.
+     *
+     * @param maxBytes max size of the exported image, 0 for no limit.
+     * @return exporter with the given limit.
+     */
+    public ImageExporter withMaxBytes(long maxBytes) {
+        return new ImageExporter(format, quality, targetSize, maxBytes, exifTags);
+    }
+
+    /**
+     * Copy the given EXIF tags of the source image to the exported one. Only supported
+     * when exporting JPEGs to a file. The orientation is never copied: it is already applied.
+     * The tags count towards {@link #withMaxBytes(long)}.
+     *
+     * @param tags tags to copy, e.g. {@link ExifInterface#TAG_DATETIME_ORIGINAL}.
+     * @return exporter which keeps the given tags.
+     */
+    public ImageExporter withExifTags(String... tags) {
+        return new ImageExporter(format, quality, targetSize, maxBytes, Arrays.copyOf(tags, tags.length));
+    }
+
+    /**
+     * Export the image to a file.
+     *
+     * @param context context.
+     * @param uri     URI of the source image.
+     * @param file    file to write, it is overwritten.
+     * @return what was written.
+     * @throws IOException if the image cannot be read or written.
+     */
+    public Result export(Context context, Uri uri, File file) throws IOException {
+        long start = System.nanoTime();
+        Map<String, String> exif = format == Bitmap.CompressFormat.JPEG ? readExif(context, uri) : null;
+        Bitmap bitmap = decode(context, uri);
+        try {
+            ImageUtils.Compression compression = compressToFile(bitmap, maxBytes, file);
+            if (exif != null && !exif.isEmpty()) {
+                long imageBytes = file.length();
+                writeExif(file, exif);
+                long exifBytes = file.length() - imageBytes;
+                if (maxBytes > 0 && file.length() > maxBytes && exifBytes > 0 && exifBytes < maxBytes) {
+                    // The tags take the same space for any image, compress it again leaving room for them
+                    compression = compressToFile(bitmap, maxBytes - exifBytes, file);
+                    writeExif(file, exif);
+                }
+            }
+            return toResult(uri, file.length(), compression, start);
+        } finally {
+            ImagePicker.discard(bitmap);
+        }
+    }
+
+    /**
+     * Export the image to a stream. EXIF tags are not copied.
+     *
+     * @param context context.
+     * @param uri     URI of the source image.
+     * @param output  stream to write, it is not closed.
+     * @return what was written.
+     * @throws IOException if the image cannot be read or written.
+     */
+    public Result export(Context context, Uri uri, OutputStream output) throws IOException {
+        long start = System.nanoTime();
+        Bitmap bitmap = decode(context, uri);
+        try {
+            ImageUtils.CountingOutputStream counter = new ImageUtils.CountingOutputStream(output);
+            ImageUtils.Compression compression = ImageUtils.compressToSize(bitmap, format, quality, maxBytes,
+                    counter);
+            counter.flush();
+            return toResult(uri, counter.getCount(), compression, start);
+        } finally {
+            ImagePicker.discard(bitmap);
+        }
+    }
+
+    private Bitmap decode(Context context, Uri uri) throws IOException {
+        // Exported images are not displayed, keep them out of the memory cache
+        Bitmap bitmap = ImagePicker.decodeImage(context, uri, false, targetSize, null);
+        if (bitmap == null) {
+            throw new IOException("Could not decode " + uri);
+        }
+        return bitmap;
+    }
+
+    private ImageUtils.Compression compressToFile(Bitmap bitmap, long budget, File file) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            return ImageUtils.compressToSize(bitmap, format, quality, budget, fos);
+        } finally {
+            fos.close();
+        }
+    }
+
+    private static Result toResult(Uri uri, long bytes, ImageUtils.Compression compression, long start) {
+        Result result = new Result(bytes, compression.getQuality(), compression.getWidth(), compression.getHeight(),
+                (System.nanoTime() - start) / 1000000);
+        Log.i(TAG, "Exported " + uri + ": " + result);
+        return result;
+    }
+
+    @Nullable
+    private Map<String, String> readExif(Context context, Uri uri) {
+        if (exifTags.length == 0) {
+            return null;
+        }
+        Map<String, String> values = new LinkedHashMap<>();
+        InputStream is = null;
+        try {
+            is = context.getContentResolver().openInputStream(uri);
+            if (is == null) {
+                throw new FileNotFoundException("Could not open " + uri);
+            }
+            ExifInterface exif = new ExifInterface(is);
+            for (String tag : exifTags) {
+                String value = exif.getAttribute(tag);
+                if (value != null && !ExifInterface.TAG_ORIENTATION.equals(tag)) {
+                    values.put(tag, value);
+                }
+            }
+        } catch (IOException e) {
+            // The image is still exported, only without metadata
+            Log.w(TAG, "Could not read EXIF of " + uri, e);
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return values;
+    }
+
+    private static void writeExif(File file, Map<String, String> values) {
+        try {
+            ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+            for (Map.Entry<String, String> value : values.entrySet()) {
+                exif.setAttribute(value.getKey(), value.getValue());
+            }
+            exif.saveAttributes();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write EXIF to " + file, e);
+        }
+    }
+
+    /**
+     * Outcome of an export.
+     */
+    public static final class Result {
+
+        private final long bytes;
+        private final int quality;
+        private final int width;
+        private final int height;
+        private final long durationMillis;
+
+        Result(long bytes, int quality, int width, int height, long durationMillis) {
+            this.bytes = bytes;
+            this.quality = quality;
+            this.width = width;
+            this.height = height;
+            this.durationMillis = durationMillis;
+        }
+
+        /**
+         * @return bytes written, including the EXIF tags.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return quality the image was compressed with.
+         */
+        public int getQuality() {
+            return quality;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return time spent decoding, compressing and writing the image.
+         */
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + ", " + bytes + " bytes at quality " + quality + " in "
+                    + durationMillis + "ms";
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Identifies a picked image to detect duplicates before decoding or uploading it. The digest
+ * of the bytes matches only the same file, while the perceptual hash (dHash of a 9x8 grayscale
+ * version of the image, rotated as displayed) also matches re-encoded copies and near-identical
+ * burst shots.
+ * See {@link ImagePicker#getFingerprintFromResult(Context, int, int, android.content.Intent)}
+ * and {@link RecentImageIndex}.
+ */
+public final class ImageFingerprint {
+
+    /**
+     * Max number of different bits between the perceptual hashes of images considered duplicates.
+     */
+    public static final int DEFAULT_MAX_DISTANCE = 10;
+
+    private static final int HASH_WIDTH = 9;
+    private static final int HASH_HEIGHT = 8;
+    // The image is subsampled while it stays over this size, then averaged into the hash grid
+    private static final int MIN_SAMPLED_SIZE = 32;
+    private static final String SEPARATOR = ":";
+    private static final String HASH_PADDING = "0000000000000000";
+
+    private final long perceptualHash;
+    private final String digest;
+
+    ImageFingerprint(long perceptualHash, String digest) {
+        this.perceptualHash = perceptualHash;
+        this.digest = digest;
+    }
+
+    /**
+     * Compute the fingerprint of an image. Only a tiny subsampled version of the image is decoded.
+     *
+     * @param context context.
+     * @param uri     URI of the image.
+     * @param bytes   original bytes of the image, they are only used for the digest.
+     * @return fingerprint of the image.
+     * @throws IOException if the image cannot be read or decoded.
+     */
+    static ImageFingerprint compute(Context context, Uri uri, ByteBuffer bytes) throws IOException {
+        return new ImageFingerprint(computePerceptualHash(context, uri), computeDigest(bytes));
+    }
+
+    /**
+     * @return dHash of the image, each bit tells if a pixel is brighter than the next one in its row.
+     */
+    public long getPerceptualHash() {
+        return perceptualHash;
+    }
+
+    /**
+     * @return SHA-256 of the bytes of the image, in hexadecimal.
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * @return number of different bits between the perceptual hashes, 0 for identical looking images.
+     */
+    public int distanceTo(ImageFingerprint other) {
+        return Long.bitCount(perceptualHash ^ other.perceptualHash);
+    }
+
+    /**
+     * @param other       fingerprint of another image.
+     * @param maxDistance max number of different bits between the perceptual hashes,
+     *                    see {@link #DEFAULT_MAX_DISTANCE}.
+     * @return true if both images have the same bytes or look the same.
+     */
+    public boolean isDuplicateOf(ImageFingerprint other, int maxDistance) {
+        return digest.equals(other.digest) || distanceTo(other) <= maxDistance;
+    }
+
+    /**
+     * @return compact representation which can be read back with {@link #decode(String)}.
+     */
+    String encode() {
+        String hex = Long.toHexString(perceptualHash);
+        return HASH_PADDING.substring(hex.length()) + hex + SEPARATOR + digest;
+    }
+
+    /**
+     * Read a fingerprint written by {@link #encode()}.
+     *
+     * @return fingerprint, or null if the value is invalid.
+     */
+    @Nullable
+    static ImageFingerprint decode(String value) {
+        int separator = HASH_PADDING.length();
+        if (value.length() <= separator + 1 || !SEPARATOR.equals(value.substring(separator, separator + 1))) {
+            return null;
+        }
+        try {
+            // Parsed in halves, the hash can be negative
+            long high = Long.parseLong(value.substring(0, separator / 2), 16);
+            long low = Long.parseLong(value.substring(separator / 2, separator), 16);
+            return new ImageFingerprint(high << 32 | low, value.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Compute the dHash of a grayscale image of 9x8 pixels.
+     *
+     * @param luminance brightness of each pixel, row by row.
+     * @return 64 bits hash.
+     */
+    static long dHash(int[] luminance) {
+        long hash = 0;
+        for (int y = 0; y < HASH_HEIGHT; y++) {
+            for (int x = 0; x < HASH_WIDTH - 1; x++) {
+                int pixel = y * HASH_WIDTH + x;
+                hash = hash << 1 | (luminance[pixel] > luminance[pixel + 1] ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ImageFingerprint)) {
+            return false;
+        }
+        ImageFingerprint that = (ImageFingerprint) o;
+        return perceptualHash == that.perceptualHash && digest.equals(that.digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (int) (perceptualHash ^ (perceptualHash >>> 32)) + digest.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+
+    /**
+     * Compute the perceptual hash of an image, as it is displayed.
+     *
+     * @param pixels   ARGB pixels of the image, row by row.
+     * @param width    width of the image.
+     * @param height   height of the image.
+     * @param rotation degrees to rotate the image clockwise: 0, 90, 180 or 270.
+     * @return 64 bits hash.
+     */
+    static long perceptualHash(int[] pixels, int width, int height, int rotation) {
+        boolean swapSides = rotation == 90 || rotation == 270;
+        int rotatedWidth = swapSides ? height : width;
+        int rotatedHeight = swapSides ? width : height;
+        // Average all the pixels of each cell, point sampling would make the hash depend on aliasing
+        long[] sums = new long[HASH_WIDTH * HASH_HEIGHT];
+        int[] counts = new int[sums.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rotatedX;
+                int rotatedY;
+                switch (rotation) {
+                    case 90:
+                        rotatedX = height - 1 - y;
+                        rotatedY = x;
+                        break;
+                    case 180:
+                        rotatedX = width - 1 - x;
+                        rotatedY = height - 1 - y;
+                        break;
+                    case 270:
+                        rotatedX = y;
+                        rotatedY = width - 1 - x;
+                        break;
+                    default:
+                        rotatedX = x;
+                        rotatedY = y;
+                        break;
+                }
+                int cell = rotatedY * HASH_HEIGHT / rotatedHeight * HASH_WIDTH + rotatedX * HASH_WIDTH / rotatedWidth;
+                int color = pixels[y * width + x];
+                sums[cell] += ((color >> 16 & 0xff) * 299 + (color >> 8 & 0xff) * 587 + (color & 0xff) * 114) / 1000;
+                counts[cell]++;
+            }
+        }
+        int[] luminance = new int[sums.length];
+        for (int i = 0; i < luminance.length; i++) {
+            // Images smaller than the grid leave some cells empty
+            luminance[i] = counts[i] > 0 ? (int) (sums[i] / counts[i]) : 0;
+        }
+        return dHash(luminance);
+    }
+
+    private static long computePerceptualHash(Context context, Uri uri) throws IOException {
+        ImageSource source = ImageSource.open(context, uri);
+        Bitmap sampled;
+        int rotation;
+        try {
+            rotation = source.getRotation();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = DecodeSizing.getSampleSize(source.getWidth(), source.getHeight(),
+                    MIN_SAMPLED_SIZE, MIN_SAMPLED_SIZE);
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            sampled = source.decode(options);
+        } finally {
+            source.close();
+        }
+        if (sampled == null) {
+            throw new IOException("Could not decode " + uri);
+        }
+        int width = sampled.getWidth();
+        int height = sampled.getHeight();
+        int[] pixels = new int[width * height];
+        sampled.getPixels(pixels, 0, width, 0, 0, width, height);
+        sampled.recycle();
+        return perceptualHash(pixels, width, height, rotation);
+    }
+
+    private static String computeDigest(ByteBuffer bytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(bytes.duplicate());
+            return ImageDiskCache.toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -18,15 +18,13 @@ package com.mvc.imagepicker;
 
 import android.Manifest;
 import android.app.Activity;
+import android.content.ClipData;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
-import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Parcelable;
 import android.provider.MediaStore;
 import android.support.annotation.Nullable;
@@ -40,8 +38,8 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -57,13 +55,17 @@ public final class ImagePicker {
     private static final int DEFAULT_MIN_HEIGHT_QUALITY = 400;        // min pixels
     private static final String TAG = ImagePicker.class.getSimpleName();
     private static final String TEMP_IMAGE_NAME = "tempImage";
+    private static final DecoderEngine BITMAP_FACTORY_ENGINE = new BitmapFactoryEngine();
+    // Taken from the EXIF or MediaStore thumbnail when there is one, otherwise decoded with a big sample size
+    private static final TargetSize PREVIEW_SIZE = TargetSize.thumbnail(256).withUsage(BitmapUsage.PREVIEW);
 
-    private static int minWidthQuality = DEFAULT_MIN_WIDTH_QUALITY;
-    private static int minHeightQuality = DEFAULT_MIN_HEIGHT_QUALITY;
-
-    private static String mChooserTitle;
-    private static int mPickImageRequestCode = DEFAULT_REQUEST_CODE;
-    private static boolean mGalleryOnly = false;
+    // Settings of the methods which do not take a config, replaced as a whole when they change
+    private static volatile Config mDefaultConfig = Config.DEFAULT;
+    private static volatile BitmapPool mBitmapPool;
+    private static volatile BitmapMemoryCache mMemoryCache;
+    private static volatile ImagePickerMetrics mMetrics;
+    // Created on first use, only on the versions which have ImageDecoder
+    private static DecoderEngine mImageDecoderEngine;
 
     private ImagePicker() {
         // not called
@@ -159,10 +161,7 @@ public final class ImagePicker {
      */
     public static void pickImage(Fragment fragment, String chooserTitle,
                                  int requestCode, boolean galleryOnly) {
-        mGalleryOnly = galleryOnly;
-        mPickImageRequestCode = requestCode;
-        mChooserTitle = chooserTitle;
-        startChooser(fragment);
+        launch(fragment, updateDefaultConfig(chooserTitle, requestCode, galleryOnly, false), true);
     }
 
     /**
@@ -174,20 +173,105 @@ public final class ImagePicker {
      */
     public static void pickImage(Activity activity, String chooserTitle,
                                  int requestCode, boolean galleryOnly) {
-        mGalleryOnly = galleryOnly;
-        mPickImageRequestCode = requestCode;
-        mChooserTitle = chooserTitle;
-        startChooser(activity);
+        launch(activity, updateDefaultConfig(chooserTitle, requestCode, galleryOnly, false), true);
+    }
+
+    /**
+     * Launch a dialog to pick several images from gallery apps, or one from camera apps.
+     * Get them with {@link #getImagesFromResultAsync(Activity, int, int, Intent, TargetSize,
+     * OnImagesResultListener)}.
+     *
+     * @param activity    which will launch the dialog.
+     * @param requestCode request code that will be returned in result.
+     */
+    public static void pickImages(Activity activity, int requestCode) {
+        pickImages(activity, activity.getString(R.string.pick_image_intent_text), requestCode);
+    }
+
+    /**
+     * Launch a dialog to pick several images from gallery apps, or one from camera apps.
+     * Get them with {@link #getImagesFromResultAsync(Fragment, int, int, Intent, TargetSize,
+     * OnImagesResultListener)}.
+     *
+     * @param fragment    which will launch the dialog.
+     * @param requestCode request code that will be returned in result.
+     */
+    public static void pickImages(Fragment fragment, int requestCode) {
+        pickImages(fragment, fragment.getString(R.string.pick_image_intent_text), requestCode);
+    }
+
+    /**
+     * Launch a dialog to pick several images from gallery apps, or one from camera apps.
+     *
+     * @param activity     which will launch the dialog and will get the result in
+     *                     onActivityResult()
+     * @param chooserTitle will appear on the picker dialog.
+     * @param requestCode  request code that will be returned in result.
+     */
+    public static void pickImages(Activity activity, String chooserTitle, int requestCode) {
+        launch(activity, updateDefaultConfig(chooserTitle, requestCode, false, true), true);
+    }
+
+    /**
+     * Launch a dialog to pick several images from gallery apps, or one from camera apps.
+     *
+     * @param fragment     which will launch the dialog and will get the result in
+     *                     onActivityResult()
+     * @param chooserTitle will appear on the picker dialog.
+     * @param requestCode  request code that will be returned in result.
+     */
+    public static void pickImages(Fragment fragment, String chooserTitle, int requestCode) {
+        launch(fragment, updateDefaultConfig(chooserTitle, requestCode, false, true), true);
+    }
+
+    /**
+     * Launch a dialog to pick images with the given settings. Pass the same config to
+     * the methods which resolve the result.
+     *
+     * @param activity which will launch the dialog and will get the result in onActivityResult()
+     * @param config   settings of the pick.
+     */
+    public static void pickImage(Activity activity, Config config) {
+        launch(activity, config, false);
+    }
+
+    /**
+     * Launch a dialog to pick images with the given settings. Pass the same config to
+     * the methods which resolve the result.
+     *
+     * @param fragment which will launch the dialog and will get the result in onActivityResult()
+     * @param config   settings of the pick.
+     */
+    public static void pickImage(Fragment fragment, Config config) {
+        launch(fragment, config, false);
+    }
+
+    /**
+     * @param defaultConfig true if the config is the one of the methods which do not take a config.
+     */
+    private static void launch(Activity activity, Config config, boolean defaultConfig) {
+        Intent chooseImageIntent = getPickImageIntent(activity, config);
+        PendingPicks.put(activity, config, defaultConfig);
+        activity.startActivityForResult(chooseImageIntent, config.getRequestCode());
     }
 
-    private static void startChooser(Fragment fragmentContext) {
-        Intent chooseImageIntent = getPickImageIntent(fragmentContext.getContext(), mChooserTitle);
-        fragmentContext.startActivityForResult(chooseImageIntent, mPickImageRequestCode);
+    private static void launch(Fragment fragment, Config config, boolean defaultConfig) {
+        Intent chooseImageIntent = getPickImageIntent(fragment.getContext(), config);
+        PendingPicks.put(fragment.getContext(), config, defaultConfig);
+        fragment.startActivityForResult(chooseImageIntent, config.getRequestCode());
     }
 
-    private static void startChooser(Activity activityContext) {
-        Intent chooseImageIntent = getPickImageIntent(activityContext, mChooserTitle);
-        activityContext.startActivityForResult(chooseImageIntent, mPickImageRequestCode);
+    private static Config updateDefaultConfig(String chooserTitle, int requestCode, boolean galleryOnly,
+                                              boolean allowMultiple) {
+        synchronized (ImagePicker.class) {
+            mDefaultConfig = mDefaultConfig.newBuilder()
+                    .setChooserTitle(chooserTitle)
+                    .setRequestCode(requestCode)
+                    .setGalleryOnly(galleryOnly)
+                    .setAllowMultiple(allowMultiple)
+                    .build();
+            return mDefaultConfig;
+        }
     }
 
     /**
@@ -198,34 +282,49 @@ public final class ImagePicker {
      * @return intent launcher.
      */
     public static Intent getPickImageIntent(Context context, String chooserTitle) {
+        return getPickImageIntent(context, mDefaultConfig.newBuilder().setChooserTitle(chooserTitle).build());
+    }
+
+    /**
+     * Get an Intent which will launch a dialog to pick images with the given settings.
+     *
+     * @param context context.
+     * @param config  settings of the pick.
+     * @return intent launcher.
+     */
+    public static Intent getPickImageIntent(Context context, Config config) {
         Intent chooserIntent = null;
         List<Intent> intentList = new ArrayList<>();
+        PickerTargets targets = PickerTargets.get(context);
 
         Intent pickIntent = new Intent(Intent.ACTION_PICK,
                 android.provider.MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
-        intentList = addIntentsToList(context, intentList, pickIntent);
+        if (config.isAllowMultiple() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            pickIntent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+        }
+        intentList = addIntentsToList(intentList, pickIntent, targets.getGalleryPackages());
 
         // Check if we want gallery apps only
-        if (!mGalleryOnly) {
+        if (!config.isGalleryOnly()) {
             // Camera action will fail if the app does not have permission, check before adding intent.
             // We only need to add the camera intent if the app does not use the CAMERA permission
             // in the androidmanifest.xml
             // Or if the user has granted access to the camera.
             // See https://developer.android.com/reference/android/provider/MediaStore.html#ACTION_IMAGE_CAPTURE
-            if (!appManifestContainsPermission(context, Manifest.permission.CAMERA) || hasCameraAccess(context)) {
+            if (!PickerTargets.manifestContainsCameraPermission(context) || hasCameraAccess(context)) {
                 Intent takePhotoIntent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
                 takePhotoIntent.putExtra("return-data", true);
                 takePhotoIntent.putExtra(MediaStore.EXTRA_OUTPUT,
                         FileProvider.getUriForFile(context, context.getApplicationInfo().packageName + ".provider",
-                                ImageUtils.getTemporalFile(context, String.valueOf(mPickImageRequestCode))));
-                //Uri.fromFile(ImageUtils.getTemporalFile(context, String.valueOf(mPickImageRequestCode))));
-                intentList = addIntentsToList(context, intentList, takePhotoIntent);
+                                getCameraFile(context, config)));
+                //Uri.fromFile(getCameraFile(context, config)));
+                intentList = addIntentsToList(intentList, takePhotoIntent, targets.getCameraPackages());
             }
         }
 
         if (intentList.size() > 0) {
             chooserIntent = Intent.createChooser(intentList.remove(intentList.size() - 1),
-                    chooserTitle);
+                    config.getChooserTitle(context));
             chooserIntent.putExtra(Intent.EXTRA_INITIAL_INTENTS,
                     intentList.toArray(new Parcelable[intentList.size()]));
         }
@@ -233,19 +332,33 @@ public final class ImagePicker {
         return chooserIntent;
     }
 
-    private static List<Intent> addIntentsToList(Context context, List<Intent> list, Intent intent) {
-        Log.i(TAG, "Adding intents of type: " + intent.getAction());
-        List<ResolveInfo> resInfo = context.getPackageManager().queryIntentActivities(intent, 0);
-        for (ResolveInfo resolveInfo : resInfo) {
-            String packageName = resolveInfo.activityInfo.packageName;
+    private static List<Intent> addIntentsToList(List<Intent> list, Intent intent, List<String> packageNames) {
+        for (String packageName : packageNames) {
             Intent targetedIntent = new Intent(intent);
             targetedIntent.setPackage(packageName);
             list.add(targetedIntent);
-            Log.i(TAG, "App package: " + packageName);
         }
         return list;
     }
 
+    /**
+     * Resolve in background the gallery and camera apps offered by the picker, so the first pick
+     * does not wait for the PackageManager. Optional, call it on app startup. The apps are
+     * resolved again when a package is installed, removed or changed.
+     *
+     * @param context context.
+     */
+    public static void warmUp(Context context) {
+        final Context appContext = context.getApplicationContext();
+        ImageExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                PickerTargets.get(appContext);
+                PickerTargets.manifestContainsCameraPermission(appContext);
+            }
+        });
+    }
+
     /**
      * Checks if the current context has permission to access the camera.
      * @param context             context.
@@ -256,229 +369,1243 @@ public final class ImagePicker {
     }
 
     /**
-     * Checks if the androidmanifest.xml contains the given permission.
+     * Called after launching the picker with the same values of Activity.getImageFromResult
+     * in order to resolve the result and get the image.
+     *
      * @param context             context.
-     * @return Boolean, indicating if the permission is present.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @return image.
      */
-    private static boolean appManifestContainsPermission(Context context, String permission) {
-        PackageManager pm = context.getPackageManager();
-        try {
-            PackageInfo packageInfo = pm.getPackageInfo(context.getPackageName(), PackageManager.GET_PERMISSIONS);
-            String[] requestedPermissions = null;
-            if (packageInfo != null) {
-                requestedPermissions = packageInfo.requestedPermissions;
-            }
-            if (requestedPermissions == null) {
-                return false;
-            }
-
-            if (requestedPermissions.length > 0) {
-                List<String> requestedPermissionsList = Arrays.asList(requestedPermissions);
-                return requestedPermissionsList.contains(permission);
-            }
-        } catch (PackageManager.NameNotFoundException e) {
-            e.printStackTrace();
-        }
-        return false;
+    @Nullable
+    public static Bitmap getImageFromResult(Context context, int requestCode, int resultCode,
+                                            Intent imageReturnedIntent) {
+        Config config = restoreDefaultConfig(context, requestCode);
+        return getImageFromResult(context, config, requestCode, resultCode, imageReturnedIntent);
     }
 
     /**
      * Called after launching the picker with the same values of Activity.getImageFromResult
-     * in order to resolve the result and get the image.
+     * in order to resolve the result and get the image scaled to the given size.
      *
      * @param context             context.
      * @param requestCode         used to identify the pick image action.
      * @param resultCode          -1 means the result is OK.
      * @param imageReturnedIntent returned intent where is the image data.
+     * @param targetSize          size of the returned image.
      * @return image.
      */
     @Nullable
     public static Bitmap getImageFromResult(Context context, int requestCode, int resultCode,
+                                            Intent imageReturnedIntent, TargetSize targetSize) {
+        return getImageFromResult(context, getDefaultConfig(context, requestCode, targetSize), requestCode, resultCode,
+                imageReturnedIntent);
+    }
+
+    /**
+     * Called after launching the picker with {@link #pickImage(Activity, Config)}
+     * in order to resolve the result and get the image at the size of the config.
+     *
+     * @param context             context.
+     * @param config              settings the picker was launched with.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @return image.
+     */
+    @Nullable
+    public static Bitmap getImageFromResult(Context context, Config config, int requestCode, int resultCode,
                                             Intent imageReturnedIntent) {
         Log.i(TAG, "getImageFromResult() called with: " + "resultCode = [" + resultCode + "]");
         Bitmap bm = null;
-        if (resultCode == Activity.RESULT_OK && requestCode == mPickImageRequestCode) {
-            File imageFile = ImageUtils.getTemporalFile(context, String.valueOf(mPickImageRequestCode));
-            Uri selectedImage;
-            boolean isCamera = (imageReturnedIntent == null
-                    || imageReturnedIntent.getData() == null
-                    || imageReturnedIntent.getData().toString().contains(imageFile.toString()));
-            if (isCamera) {     /** CAMERA **/
-                //selectedImage = Uri.fromFile(imageFile);
-                selectedImage = FileProvider.getUriForFile(context,
-                        context.getApplicationInfo().packageName + ".provider", imageFile);
-
-
-            } else {            /** ALBUM **/
-                selectedImage = imageReturnedIntent.getData();
-            }
+        if (isPickResult(context, config, requestCode, resultCode)) {
+            boolean isCamera = isCamera(context, config, imageReturnedIntent);
+            Uri selectedImage = getSelectedImage(context, config, imageReturnedIntent, isCamera);
             Log.i(TAG, "selectedImage: " + selectedImage);
 
-            bm = decodeBitmap(context, selectedImage);
-            int rotation = ImageRotator.getRotation(context, selectedImage, isCamera);
-            bm = ImageRotator.rotate(bm, rotation);
+            String version = getMemoryCacheVersion(context, config, selectedImage, isCamera);
+            bm = loadImage(context, selectedImage, isCamera, version, config.getTargetSize(), null);
         }
         return bm;
     }
 
     /**
-     * Called after launching the picker with the same values of Activity.getImageFromResult
-     * in order to resolve the result and get the image path.
+     * Same as {@link #getImageFromResult(Context, int, int, Intent)} but the image is decoded
+     * in background and delivered on the main thread. The load is cancelled automatically
+     * when the activity is destroyed.
      *
-     * @param context             context.
+     * @param activity            activity which receives the result.
      * @param requestCode         used to identify the pick image action.
      * @param resultCode          -1 means the result is OK.
      * @param imageReturnedIntent returned intent where is the image data.
-     * @return path to the saved image.
+     * @param listener            will receive the image.
+     * @return handle to cancel the load, or null if the result does not belong to the picker.
      */
     @Nullable
-    public static String getImagePathFromResult(Context context, int requestCode, int resultCode,
-                                                Intent imageReturnedIntent) {
-        Log.i(TAG, "getImagePathFromResult() called with: " + "resultCode = [" + resultCode + "]");
-        Uri selectedImage = null;
-        if (resultCode == Activity.RESULT_OK && requestCode == mPickImageRequestCode) {
-            File imageFile = ImageUtils.getTemporalFile(context, String.valueOf(mPickImageRequestCode));
-            boolean isCamera = (imageReturnedIntent == null
-                    || imageReturnedIntent.getData() == null
-                    || imageReturnedIntent.getData().toString().contains(imageFile.toString()));
-            if (isCamera) {
-                return imageFile.getAbsolutePath();
-            } else {
-                selectedImage = imageReturnedIntent.getData();
-            }
-            Log.i(TAG, "selectedImage: " + selectedImage);
-        }
-        if (selectedImage == null) {
-            return null;
+    public static ImageRequest getImageFromResultAsync(Activity activity, int requestCode, int resultCode,
+                                                       Intent imageReturnedIntent,
+                                                       OnImageResultListener listener) {
+        Config config = restoreDefaultConfig(activity, requestCode);
+        return getImageFromResultAsync(activity, config, requestCode, resultCode, imageReturnedIntent, listener);
+    }
+
+    /**
+     * Same as {@link #getImageFromResult(Context, int, int, Intent, TargetSize)} but the image
+     * is decoded in background and delivered on the main thread. The load is cancelled
+     * automatically when the activity is destroyed.
+     *
+     * @param activity            activity which receives the result.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @param targetSize          size of the returned image.
+     * @param listener            will receive the image.
+     * @return handle to cancel the load, or null if the result does not belong to the picker.
+     */
+    @Nullable
+    public static ImageRequest getImageFromResultAsync(Activity activity, int requestCode, int resultCode,
+                                                       Intent imageReturnedIntent, TargetSize targetSize,
+                                                       OnImageResultListener listener) {
+        Config config = getDefaultConfig(activity, requestCode, targetSize);
+        return getImageFromResultAsync(activity, config, requestCode, resultCode, imageReturnedIntent, listener);
+    }
+
+    /**
+     * Same as {@link #getImageFromResult(Context, Config, int, int, Intent)} but the image
+     * is decoded in background and delivered on the main thread. The load is cancelled
+     * automatically when the activity is destroyed.
+     *
+     * @param activity            activity which receives the result.
+     * @param config              settings the picker was launched with.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @param listener            will receive the image.
+     * @return handle to cancel the load, or null if the result does not belong to the picker.
+     */
+    @Nullable
+    public static ImageRequest getImageFromResultAsync(Activity activity, Config config, int requestCode,
+                                                       int resultCode, Intent imageReturnedIntent,
+                                                       OnImageResultListener listener) {
+        ImageRequest request = getImageFromResultAsync((Context) activity, config, requestCode, resultCode,
+                imageReturnedIntent, listener);
+        if (request != null) {
+            request.bindTo(activity);
         }
-        return getFilePathFromUri(context, selectedImage);
+        return request;
     }
 
     /**
-     * Get stream, save the picture to the temp file and return path.
+     * Same as {@link #getImageFromResult(Context, int, int, Intent)} but the image is decoded
+     * in background and delivered on the main thread. The load is cancelled automatically
+     * when the fragment is destroyed.
      *
-     * @param context context
-     * @param uri uri of the incoming file
-     * @return path to the saved image.
+     * @param fragment            fragment which receives the result.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @param listener            will receive the image.
+     * @return handle to cancel the load, or null if the result does not belong to the picker.
      */
-    private static String getFilePathFromUri(Context context, Uri uri) {
-        InputStream is = null;
-        if (uri.getAuthority() != null) {
-            try {
-                is = context.getContentResolver().openInputStream(uri);
-                Bitmap bmp = BitmapFactory.decodeStream(is);
-                return ImageUtils.savePicture(context, bmp, String.valueOf(uri.getPath().hashCode()));
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            } finally {
-                try {
-                    is.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+    @Nullable
+    public static ImageRequest getImageFromResultAsync(Fragment fragment, int requestCode, int resultCode,
+                                                       Intent imageReturnedIntent,
+                                                       OnImageResultListener listener) {
+        Config config = restoreDefaultConfig(fragment.getContext(), requestCode);
+        return getImageFromResultAsync(fragment, config, requestCode, resultCode, imageReturnedIntent, listener);
+    }
+
+    /**
+     * Same as {@link #getImageFromResult(Context, int, int, Intent, TargetSize)} but the image
+     * is decoded in background and delivered on the main thread. The load is cancelled
+     * automatically when the fragment is destroyed.
+     *
+     * @param fragment            fragment which receives the result.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @param targetSize          size of the returned image.
+     * @param listener            will receive the image.
+     * @return handle to cancel the load, or null if the result does not belong to the picker.
+     */
+    @Nullable
+    public static ImageRequest getImageFromResultAsync(Fragment fragment, int requestCode, int resultCode,
+                                                       Intent imageReturnedIntent, TargetSize targetSize,
+                                                       OnImageResultListener listener) {
+        Config config = getDefaultConfig(fragment.getContext(), requestCode, targetSize);
+        return getImageFromResultAsync(fragment, config, requestCode, resultCode, imageReturnedIntent, listener);
+    }
+
+    /**
+     * Same as {@link #getImageFromResult(Context, Config, int, int, Intent)} but the image
+     * is decoded in background and delivered on the main thread. The load is cancelled
+     * automatically when the fragment is destroyed.
+     *
+     * @param fragment            fragment which receives the result.
+     * @param config              settings the picker was launched with.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @param listener            will receive the image.
+     * @return handle to cancel the load, or null if the result does not belong to the picker.
+     */
+    @Nullable
+    public static ImageRequest getImageFromResultAsync(Fragment fragment, Config config, int requestCode,
+                                                       int resultCode, Intent imageReturnedIntent,
+                                                       OnImageResultListener listener) {
+        ImageRequest request = getImageFromResultAsync(fragment.getContext(), config, requestCode, resultCode,
+                imageReturnedIntent, listener);
+        if (request != null) {
+            request.bindTo(fragment);
         }
-        return null;
+        return request;
     }
 
     /**
-     * Called after launching the picker with the same values of Activity.getImageFromResult
-     * in order to resolve the result and get the input stream for the image.
+     * Same as {@link #getImageFromResult(Context, int, int, Intent)} but the image is decoded
+     * in background and delivered on the main thread. The caller is responsible for cancelling
+     * the returned request when the result is not needed anymore.
      *
      * @param context             context.
      * @param requestCode         used to identify the pick image action.
      * @param resultCode          -1 means the result is OK.
      * @param imageReturnedIntent returned intent where is the image data.
-     * @return stream.
+     * @param listener            will receive the image.
+     * @return handle to cancel the load, or null if the result does not belong to the picker.
      */
-    public static InputStream getInputStreamFromResult(Context context, int requestCode, int resultCode,
-                                                       Intent imageReturnedIntent) {
-        Log.i(TAG, "getFileFromResult() called with: " + "resultCode = [" + resultCode + "]");
-        if (resultCode == Activity.RESULT_OK && requestCode == mPickImageRequestCode) {
-            File imageFile = ImageUtils.getTemporalFile(context, String.valueOf(mPickImageRequestCode));
-            Uri selectedImage;
-            boolean isCamera = (imageReturnedIntent == null
-                    || imageReturnedIntent.getData() == null
-                    || imageReturnedIntent.getData().toString().contains(imageFile.toString()));
-            if (isCamera) {     /** CAMERA **/
-                //selectedImage = Uri.fromFile(imageFile);
-                selectedImage = FileProvider.getUriForFile(context,
-                        context.getApplicationInfo().packageName + ".provider", imageFile);
-            } else {            /** ALBUM **/
-                selectedImage = imageReturnedIntent.getData();
-            }
-            Log.i(TAG, "selectedImage: " + selectedImage);
+    @Nullable
+    public static ImageRequest getImageFromResultAsync(Context context, int requestCode, int resultCode,
+                                                       Intent imageReturnedIntent,
+                                                       OnImageResultListener listener) {
+        Config config = restoreDefaultConfig(context, requestCode);
+        return getImageFromResultAsync(context, config, requestCode, resultCode, imageReturnedIntent, listener);
+    }
 
-            try {
-                if (isCamera) {
-                    // We can just open the temporary file stream and return it
-                    return new FileInputStream(imageFile);
-                } else {
-                    // Otherwise use the ContentResolver
-                    return context.getContentResolver().openInputStream(selectedImage);
-                }
-            } catch (FileNotFoundException ex) {
-                Log.e(TAG, "Could not open input stream for: " + selectedImage);
-                return null;
-            }
-        }
-        return null;
+    /**
+     * Same as {@link #getImageFromResult(Context, int, int, Intent, TargetSize)} but the image
+     * is decoded in background and delivered on the main thread. The caller is responsible for
+     * cancelling the returned request when the result is not needed anymore.
+     *
+     * @param context             context.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @param targetSize          size of the returned image.
+     * @param listener            will receive the image.
+     * @return handle to cancel the load, or null if the result does not belong to the picker.
+     */
+    @Nullable
+    public static ImageRequest getImageFromResultAsync(Context context, int requestCode, int resultCode,
+                                                       Intent imageReturnedIntent, TargetSize targetSize,
+                                                       OnImageResultListener listener) {
+        Config config = getDefaultConfig(context, requestCode, targetSize);
+        return getImageFromResultAsync(context, config, requestCode, resultCode, imageReturnedIntent, listener);
     }
 
     /**
-     * Loads a bitmap and avoids using too much memory loading big images (e.g.: 2560*1920)
+     * Same as {@link #getImageFromResult(Context, Config, int, int, Intent)} but the image
+     * is decoded in background and delivered on the main thread. The caller is responsible for
+     * cancelling the returned request when the result is not needed anymore.
+     *
+     * @param context             context.
+     * @param config              settings the picker was launched with.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @param listener            will receive the image.
+     * @return handle to cancel the load, or null if the result does not belong to the picker.
      */
-    private static Bitmap decodeBitmap(Context context, Uri theUri) {
-        Bitmap outputBitmap = null;
-        AssetFileDescriptor fileDescriptor = null;
+    @Nullable
+    public static ImageRequest getImageFromResultAsync(Context context, Config config, int requestCode,
+                                                       int resultCode, Intent imageReturnedIntent,
+                                                       OnImageResultListener listener) {
+        Log.i(TAG, "getImageFromResultAsync() called with: " + "resultCode = [" + resultCode + "]");
+        if (!isPickResult(context, config, requestCode, resultCode)) {
+            return null;
+        }
+        boolean isCamera = isCamera(context, config, imageReturnedIntent);
+        Uri selectedImage = getSelectedImage(context, config, imageReturnedIntent, isCamera);
+        Log.i(TAG, "selectedImage: " + selectedImage);
 
-        try {
-            fileDescriptor = context.getContentResolver().openAssetFileDescriptor(theUri, "r");
-
-            // Get size of bitmap file
-            BitmapFactory.Options boundsOptions = new BitmapFactory.Options();
-            boundsOptions.inJustDecodeBounds = true;
-            BitmapFactory.decodeFileDescriptor(fileDescriptor.getFileDescriptor(), null, boundsOptions);
-
-            // Get desired sample size. Note that these must be powers-of-two.
-            int[] sampleSizes = new int[]{8, 4, 2, 1};
-            int selectedSampleSize = 1; // 1 by default (original image)
-
-            for (int sampleSize : sampleSizes) {
-                selectedSampleSize = sampleSize;
-                int targetWidth = boundsOptions.outWidth / sampleSize;
-                int targetHeight = boundsOptions.outHeight / sampleSize;
-                if (targetWidth >= minWidthQuality && targetHeight >= minHeightQuality) {
-                    break;
-                }
-            }
+        return loadImageAsync(context.getApplicationContext(), config, selectedImage, isCamera, listener);
+    }
 
-            // Decode bitmap at desired size
-            BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
-            decodeOptions.inSampleSize = selectedSampleSize;
-            outputBitmap = BitmapFactory.decodeFileDescriptor(fileDescriptor.getFileDescriptor(), null, decodeOptions);
-            if (outputBitmap != null) {
-                Log.i(TAG, "Loaded image with sample size " + decodeOptions.inSampleSize + "\t\t"
-                        + "Bitmap width: " + outputBitmap.getWidth()
-                        + "\theight: " + outputBitmap.getHeight());
-            }
-            fileDescriptor.close();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Called after launching the picker with {@link #pickImages(Activity, int)}
+     * in order to resolve the result and get the URIs of the picked images.
+     *
+     * @param context             context.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @return picked images, empty if the result does not belong to the picker.
+     */
+    public static List<Uri> getImageUrisFromResult(Context context, int requestCode, int resultCode,
+                                                   Intent imageReturnedIntent) {
+        Config config = restoreDefaultConfig(context, requestCode);
+        return getImageUrisFromResult(context, config, requestCode, resultCode, imageReturnedIntent);
+    }
+
+    /**
+     * Called after launching the picker with {@link #pickImage(Activity, Config)}
+     * in order to resolve the result and get the URIs of the picked images.
+     *
+     * @param context             context.
+     * @param config              settings the picker was launched with.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @return picked images, empty if the result does not belong to the picker.
+     */
+    public static List<Uri> getImageUrisFromResult(Context context, Config config, int requestCode,
+                                                   int resultCode, Intent imageReturnedIntent) {
+        if (!isPickResult(context, config, requestCode, resultCode)) {
+            return new ArrayList<>();
         }
+        return getSelectedImages(context, config, imageReturnedIntent,
+                isCamera(context, config, imageReturnedIntent));
+    }
+
+    /**
+     * Called after launching the picker with {@link #pickImages(Activity, int)} in order to
+     * resolve the result and get the picked images. They are decoded in parallel and delivered
+     * on the main thread one by one, in the order they were picked. The load is cancelled
+     * automatically when the activity is destroyed.
+     *
+     * @param activity            activity which receives the result.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @param targetSize          size of the returned images.
+     * @param listener            will receive the images.
+     * @return handle to cancel the load, or null if the result does not belong to the picker.
+     */
+    @Nullable
+    public static ImageRequest getImagesFromResultAsync(Activity activity, int requestCode, int resultCode,
+                                                        Intent imageReturnedIntent, TargetSize targetSize,
+                                                        OnImagesResultListener listener) {
+        Config config = getDefaultConfig(activity, requestCode, targetSize);
+        return getImagesFromResultAsync(activity, config, requestCode, resultCode, imageReturnedIntent, listener);
+    }
 
-        return outputBitmap;
+    /**
+     * Called after launching the picker with {@link #pickImage(Activity, Config)} in order to
+     * resolve the result and get the picked images. They are decoded in parallel and delivered
+     * on the main thread one by one, in the order they were picked. The load is cancelled
+     * automatically when the activity is destroyed.
+     *
+     * @param activity            activity which receives the result.
+     * @param config              settings the picker was launched with.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @param listener            will receive the images.
+     * @return handle to cancel the load, or null if the result does not belong to the picker.
+     */
+    @Nullable
+    public static ImageRequest getImagesFromResultAsync(Activity activity, Config config, int requestCode,
+                                                        int resultCode, Intent imageReturnedIntent,
+                                                        OnImagesResultListener listener) {
+        ImageRequest request = getImagesFromResultAsync((Context) activity, config, requestCode, resultCode,
+                imageReturnedIntent, listener);
+        if (request != null) {
+            request.bindTo(activity);
+        }
+        return request;
     }
 
+    /**
+     * Called after launching the picker with {@link #pickImages(Fragment, int)} in order to
+     * resolve the result and get the picked images. They are decoded in parallel and delivered
+     * on the main thread one by one, in the order they were picked. The load is cancelled
+     * automatically when the fragment is destroyed.
+     *
+     * @param fragment            fragment which receives the result.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @param targetSize          size of the returned images.
+     * @param listener            will receive the images.
+     * @return handle to cancel the load, or null if the result does not belong to the picker.
+     */
+    @Nullable
+    public static ImageRequest getImagesFromResultAsync(Fragment fragment, int requestCode, int resultCode,
+                                                        Intent imageReturnedIntent, TargetSize targetSize,
+                                                        OnImagesResultListener listener) {
+        Config config = getDefaultConfig(fragment.getContext(), requestCode, targetSize);
+        return getImagesFromResultAsync(fragment, config, requestCode, resultCode, imageReturnedIntent, listener);
+    }
 
-    /*
-    GETTERS AND SETTERS
+    /**
+     * Called after launching the picker with {@link #pickImage(Fragment, Config)} in order to
+     * resolve the result and get the picked images. They are decoded in parallel and delivered
+     * on the main thread one by one, in the order they were picked. The load is cancelled
+     * automatically when the fragment is destroyed.
+     *
+     * @param fragment            fragment which receives the result.
+     * @param config              settings the picker was launched with.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @param listener            will receive the images.
+     * @return handle to cancel the load, or null if the result does not belong to the picker.
      */
+    @Nullable
+    public static ImageRequest getImagesFromResultAsync(Fragment fragment, Config config, int requestCode,
+                                                        int resultCode, Intent imageReturnedIntent,
+                                                        OnImagesResultListener listener) {
+        ImageRequest request = getImagesFromResultAsync(fragment.getContext(), config, requestCode, resultCode,
+                imageReturnedIntent, listener);
+        if (request != null) {
+            request.bindTo(fragment);
+        }
+        return request;
+    }
 
-    public static void setMinQuality(int minWidthQuality, int minHeightQuality) {
-        ImagePicker.minWidthQuality = minWidthQuality;
-        ImagePicker.minHeightQuality = minHeightQuality;
+    /**
+     * Called after launching the picker with {@link #pickImages(Activity, int)} in order to
+     * resolve the result and get the picked images. They are decoded in parallel and delivered
+     * on the main thread one by one, in the order they were picked. The caller is responsible
+     * for cancelling the returned request when the images are not needed anymore.
+     *
+     * @param context             context.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @param targetSize          size of the returned images.
+     * @param listener            will receive the images.
+     * @return handle to cancel the load, or null if the result does not belong to the picker.
+     */
+    @Nullable
+    public static ImageRequest getImagesFromResultAsync(Context context, int requestCode, int resultCode,
+                                                        Intent imageReturnedIntent, TargetSize targetSize,
+                                                        OnImagesResultListener listener) {
+        Config config = getDefaultConfig(context, requestCode, targetSize);
+        return getImagesFromResultAsync(context, config, requestCode, resultCode, imageReturnedIntent, listener);
+    }
+
+    /**
+     * Called after launching the picker with {@link #pickImage(Activity, Config)} in order to
+     * resolve the result and get the picked images. They are decoded in parallel and delivered
+     * on the main thread one by one, in the order they were picked. The caller is responsible
+     * for cancelling the returned request when the images are not needed anymore.
+     *
+     * @param context             context.
+     * @param config              settings the picker was launched with.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @param listener            will receive the images.
+     * @return handle to cancel the load, or null if the result does not belong to the picker.
+     */
+    @Nullable
+    public static ImageRequest getImagesFromResultAsync(Context context, Config config, int requestCode,
+                                                        int resultCode, Intent imageReturnedIntent,
+                                                        OnImagesResultListener listener) {
+        Log.i(TAG, "getImagesFromResultAsync() called with: " + "resultCode = [" + resultCode + "]");
+        if (!isPickResult(context, config, requestCode, resultCode)) {
+            return null;
+        }
+        boolean isCamera = isCamera(context, config, imageReturnedIntent);
+        List<Uri> selectedImages = getSelectedImages(context, config, imageReturnedIntent, isCamera);
+        return ImageBatchLoader.load(context.getApplicationContext(), config, selectedImages, isCamera, listener);
+    }
+
+    private static ImageRequest loadImageAsync(final Context context, final Config config, final Uri selectedImage,
+                                               final boolean isCamera, OnImageResultListener listener) {
+        final ImageRequest request = new ImageRequest(listener);
+        request.addFuture(ImageExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (request.isCancelled()) {
+                    return;
+                }
+                String version = getMemoryCacheVersion(context, config, selectedImage, isCamera);
+                if (request.getListener() instanceof OnImagePreviewListener
+                        && !config.getTargetSize().isThumbnail()) {
+                    final Bitmap preview = loadImage(context, selectedImage, isCamera, version, PREVIEW_SIZE, request);
+                    if (preview != null) {
+                        ImageExecutor.postToMainThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                request.deliverPreview(preview);
+                            }
+                        });
+                    }
+                }
+                final Bitmap bitmap = loadImage(context, selectedImage, isCamera, version, config.getTargetSize(),
+                        request);
+                ImageExecutor.postToMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        request.deliver(bitmap);
+                    }
+                });
+            }
+        }));
+        return request;
+    }
+
+    /**
+     * Decode and rotate the selected image. The image is opened only once.
+     *
+     * @param version version of the image from {@link #getMemoryCacheVersion(Context, Config, Uri, boolean)}.
+     * @param request if not null, the load is aborted as soon as it is cancelled.
+     */
+    static Bitmap loadImage(Context context, Uri selectedImage, boolean isCamera, @Nullable String version,
+                            TargetSize targetSize, @Nullable ImageRequest request) {
+        BitmapMemoryCache memoryCache = mMemoryCache;
+        if (memoryCache != null) {
+            Bitmap cached = memoryCache.get(selectedImage, version, targetSize);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Bitmap bm = decodeImage(context, selectedImage, isCamera, targetSize, request);
+        if (bm != null && memoryCache != null) {
+            memoryCache.put(selectedImage, targetSize, bm);
+        }
+        return bm;
+    }
+
+    /**
+     * Decode and rotate the selected image without going through the memory cache, for images
+     * which are not displayed.
+     *
+     * @param request if not null, the load is aborted as soon as it is cancelled.
+     */
+    static Bitmap decodeImage(Context context, Uri selectedImage, boolean isCamera, TargetSize targetSize,
+                              @Nullable ImageRequest request) {
+        PickTrace trace = PickTrace.start(selectedImage);
+        try {
+            BitmapPool pool = mBitmapPool;
+            Bitmap bm = getDecoderEngine(targetSize, pool).decode(context, selectedImage, isCamera, targetSize, pool,
+                    trace);
+            if (bm == null || isCancelled(request, bm)) {
+                return null;
+            }
+            PickTrace.finish(trace, bm);
+            return bm;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Select the fastest engine which supports the request. ImageDecoder reads the image only once,
+     * but it cannot reuse pooled bitmaps nor read the EXIF thumbnail.
+     */
+    private static DecoderEngine getDecoderEngine(TargetSize targetSize, @Nullable BitmapPool pool) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && pool == null && !targetSize.isThumbnail()) {
+            return getImageDecoderEngine();
+        }
+        return BITMAP_FACTORY_ENGINE;
+    }
+
+    private static synchronized DecoderEngine getImageDecoderEngine() {
+        if (mImageDecoderEngine == null) {
+            mImageDecoderEngine = new ImageDecoderEngine(BITMAP_FACTORY_ENGINE);
+        }
+        return mImageDecoderEngine;
+    }
+
+    private static boolean isCancelled(@Nullable ImageRequest request, Bitmap bitmap) {
+        if (request != null && request.isCancelled()) {
+            discard(bitmap);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Release a loaded bitmap which will not be delivered. Cached bitmaps are kept,
+     * other screens may be displaying them.
+     */
+    static void discard(Bitmap bitmap) {
+        BitmapMemoryCache memoryCache = mMemoryCache;
+        if (memoryCache == null || !memoryCache.contains(bitmap)) {
+            BitmapPool.release(mBitmapPool, bitmap);
+        }
+    }
+
+    /**
+     * Get the version of the picked image for the memory cache. It is resolved once per pick result,
+     * so the cache lookups do not query the provider.
+     *
+     * @return version of the image, or null if there is no memory cache or the version is unknown.
+     */
+    @Nullable
+    static String getMemoryCacheVersion(Context context, Config config, Uri selectedImage, boolean isCamera) {
+        if (mMemoryCache == null) {
+            return null;
+        }
+        if (isCamera) {
+            // The camera always writes to the same file
+            File imageFile = getCameraFile(context, config);
+            return imageFile.length() + ":" + imageFile.lastModified();
+        }
+        // Images can be edited in place, keeping their URI
+        return ImageDiskCache.getVersion(context, selectedImage);
+    }
+
+    private static boolean isPickResult(Context context, Config config, int requestCode, int resultCode) {
+        if (requestCode != config.getRequestCode()) {
+            return false;
+        }
+        // The result arrived, the pick does not need to survive the process anymore
+        PendingPicks.remove(context, requestCode);
+        return resultCode == Activity.RESULT_OK;
+    }
+
+    /**
+     * @return file where the camera apps save the photo.
+     */
+    private static File getCameraFile(Context context, Config config) {
+        return ImageUtils.getTemporalFile(context, String.valueOf(config.getRequestCode()));
+    }
+
+    private static boolean isCamera(Context context, Config config, Intent imageReturnedIntent) {
+        if (imageReturnedIntent != null && imageReturnedIntent.getData() == null
+                && getClipData(imageReturnedIntent) != null) {
+            return false;
+        }
+        File imageFile = getCameraFile(context, config);
+        return imageReturnedIntent == null
+                || imageReturnedIntent.getData() == null
+                || imageReturnedIntent.getData().toString().contains(imageFile.toString());
+    }
+
+    private static Uri getSelectedImage(Context context, Config config, Intent imageReturnedIntent,
+                                        boolean isCamera) {
+        if (isCamera) {     /** CAMERA **/
+            File imageFile = getCameraFile(context, config);
+            //return Uri.fromFile(imageFile);
+            return FileProvider.getUriForFile(context,
+                    context.getApplicationInfo().packageName + ".provider", imageFile);
+        } else if (imageReturnedIntent.getData() != null) {            /** ALBUM **/
+            return imageReturnedIntent.getData();
+        } else {            /** ALBUM, MULTIPLE SELECTION **/
+            return getClipData(imageReturnedIntent).getItemAt(0).getUri();
+        }
+    }
+
+    private static List<Uri> getSelectedImages(Context context, Config config, Intent imageReturnedIntent,
+                                               boolean isCamera) {
+        List<Uri> uris = new ArrayList<>();
+        ClipData clipData = isCamera ? null : getClipData(imageReturnedIntent);
+        if (clipData == null) {
+            uris.add(getSelectedImage(context, config, imageReturnedIntent, isCamera));
+            return uris;
+        }
+        for (int i = 0; i < clipData.getItemCount(); i++) {
+            Uri uri = clipData.getItemAt(i).getUri();
+            if (uri != null) {
+                uris.add(uri);
+            }
+        }
+        return uris;
+    }
+
+    /**
+     * @return images selected in a multiple selection, or null if there are none.
+     */
+    @Nullable
+    private static ClipData getClipData(Intent imageReturnedIntent) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return null;
+        }
+        ClipData clipData = imageReturnedIntent.getClipData();
+        return clipData != null && clipData.getItemCount() > 0 ? clipData : null;
+    }
+
+    /**
+     * Called after launching the picker with the same values of Activity.getImageFromResult
+     * in order to resolve the result and get the image path.
+     *
+     * @param context             context.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @return path to the saved image.
+     */
+    @Nullable
+    public static String getImagePathFromResult(Context context, int requestCode, int resultCode,
+                                                Intent imageReturnedIntent) {
+        Config config = restoreDefaultConfig(context, requestCode);
+        return getImagePathFromResult(context, config, requestCode, resultCode, imageReturnedIntent);
+    }
+
+    /**
+     * Called after launching the picker with {@link #pickImage(Activity, Config)}
+     * in order to resolve the result and get the image path. The image is not decoded.
+     *
+     * @param context             context.
+     * @param config              settings the picker was launched with.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @return path to the saved image.
+     */
+    @Nullable
+    public static String getImagePathFromResult(Context context, Config config, int requestCode, int resultCode,
+                                                Intent imageReturnedIntent) {
+        Log.i(TAG, "getImagePathFromResult() called with: " + "resultCode = [" + resultCode + "]");
+        if (!isPickResult(context, config, requestCode, resultCode)) {
+            return null;
+        }
+        if (isCamera(context, config, imageReturnedIntent)) {
+            return getCameraFile(context, config).getAbsolutePath();
+        }
+        Uri selectedImage = getSelectedImage(context, config, imageReturnedIntent, false);
+        Log.i(TAG, "selectedImage: " + selectedImage);
+        return getFilePathFromUri(context, selectedImage);
+    }
+
+    /**
+     * Called after launching the picker with the same values of Activity.getImageFromResult
+     * in order to resolve the result and get the path of the image resized to the given size.
+     * Unlike {@link #getImagePathFromResult(Context, int, int, Intent)}, the image is decoded
+     * and saved again as JPEG, so only use it when a smaller file is needed.
+     *
+     * @param context             context.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @param targetSize          size of the saved image.
+     * @return path to the saved image.
+     */
+    @Nullable
+    public static String getImagePathFromResult(Context context, int requestCode, int resultCode,
+                                                Intent imageReturnedIntent, TargetSize targetSize) {
+        Log.i(TAG, "getImagePathFromResult() called with: " + "resultCode = [" + resultCode + "]");
+        Config config = restoreDefaultConfig(context, requestCode);
+        if (!isPickResult(context, config, requestCode, resultCode)) {
+            return null;
+        }
+        boolean isCamera = isCamera(context, config, imageReturnedIntent);
+        Uri selectedImage = getSelectedImage(context, config, imageReturnedIntent, isCamera);
+        Log.i(TAG, "selectedImage: " + selectedImage);
+        // The camera always writes to the same URI, version its file instead
+        Uri sourceImage = isCamera ? Uri.fromFile(getCameraFile(context, config)) : selectedImage;
+        File entry = ImageDiskCache.getEntry(context, sourceImage, targetSize, "jpeg");
+        if (entry != null && ImageDiskCache.hit(entry)) {
+            return entry.getAbsolutePath();
+        }
+        String version = getMemoryCacheVersion(context, config, selectedImage, isCamera);
+        Bitmap bm = loadImage(context, selectedImage, isCamera, version, targetSize, null);
+        if (bm == null) {
+            return null;
+        }
+        PickTrace trace = PickTrace.start(selectedImage);
+        long begin = PickTrace.begin(trace);
+        try {
+            if (entry == null) {
+                File savedImage = ImageUtils.getTemporalFile(context,
+                        ImageDiskCache.sha256(selectedImage.toString()) + ".jpeg");
+                return ImageUtils.savePicture(bm, savedImage) ? savedImage.getAbsolutePath() : null;
+            }
+            File tempFile = ImageDiskCache.getTempFile(entry);
+            if (!ImageUtils.savePicture(bm, tempFile) || !ImageDiskCache.commit(tempFile, entry)) {
+                return null;
+            }
+            return entry.getAbsolutePath();
+        } finally {
+            PickTrace.end(trace, ImagePickerMetrics.Stage.SAVE, begin);
+            discard(bm);
+        }
+    }
+
+    /**
+     * Copy the picture to the disk cache and return path. The image is not decoded.
+     *
+     * @param context context
+     * @param uri uri of the incoming file
+     * @return path to the copied image.
+     */
+    private static String getFilePathFromUri(Context context, Uri uri) {
+        if (uri.getAuthority() == null) {
+            return null;
+        }
+        File entry = ImageDiskCache.getEntry(context, uri, null, ImageUtils.getExtension(context, uri));
+        if (entry == null) {
+            return ImageUtils.copyPicture(context, uri, ImageDiskCache.sha256(uri.toString()));
+        }
+        if (ImageDiskCache.hit(entry)) {
+            return entry.getAbsolutePath();
+        }
+        File tempFile = ImageDiskCache.getTempFile(entry);
+        PickTrace trace = PickTrace.start(uri);
+        long begin = PickTrace.begin(trace);
+        boolean copied = ImageUtils.copyPicture(context, uri, tempFile) && ImageDiskCache.commit(tempFile, entry);
+        PickTrace.end(trace, ImagePickerMetrics.Stage.SAVE, begin);
+        return copied ? entry.getAbsolutePath() : null;
+    }
+
+    /**
+     * Called after launching the picker with the same values of Activity.getImageFromResult
+     * in order to resolve the result and get the input stream for the image.
+     *
+     * @param context             context.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @return stream.
+     */
+    public static InputStream getInputStreamFromResult(Context context, int requestCode, int resultCode,
+                                                       Intent imageReturnedIntent) {
+        Config config = restoreDefaultConfig(context, requestCode);
+        return getInputStreamFromResult(context, config, requestCode, resultCode, imageReturnedIntent);
+    }
+
+    /**
+     * Called after launching the picker with {@link #pickImage(Activity, Config)}
+     * in order to resolve the result and get the input stream for the image.
+     *
+     * @param context             context.
+     * @param config              settings the picker was launched with.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @return stream.
+     */
+    public static InputStream getInputStreamFromResult(Context context, Config config, int requestCode,
+                                                       int resultCode, Intent imageReturnedIntent) {
+        Log.i(TAG, "getFileFromResult() called with: " + "resultCode = [" + resultCode + "]");
+        if (isPickResult(context, config, requestCode, resultCode)) {
+            File imageFile = getCameraFile(context, config);
+            boolean isCamera = isCamera(context, config, imageReturnedIntent);
+            Uri selectedImage = getSelectedImage(context, config, imageReturnedIntent, isCamera);
+            Log.i(TAG, "selectedImage: " + selectedImage);
+
+            try {
+                if (isCamera) {
+                    // We can just open the temporary file stream and return it
+                    return new FileInputStream(imageFile);
+                } else {
+                    // Otherwise use the ContentResolver
+                    return context.getContentResolver().openInputStream(selectedImage);
+                }
+            } catch (FileNotFoundException ex) {
+                Log.e(TAG, "Could not open input stream for: " + selectedImage);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Called after launching the picker with the same values of Activity.getImageFromResult
+     * in order to resolve the result and get the bytes of the image without copying them into the heap.
+     * The image is read from disk, do not call it on the main thread.
+     *
+     * @param context             context.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @return read-only buffer with the original bytes of the image, or null if it could not be read.
+     */
+    @Nullable
+    public static ByteBuffer getImageBufferFromResult(Context context, int requestCode, int resultCode,
+                                                      Intent imageReturnedIntent) {
+        Config config = restoreDefaultConfig(context, requestCode);
+        return getImageBufferFromResult(context, config, requestCode, resultCode, imageReturnedIntent);
+    }
+
+    /**
+     * Called after launching the picker with {@link #pickImage(Activity, Config)}
+     * in order to resolve the result and get the bytes of the image without copying them into the heap.
+     * The image is memory mapped when the camera file or the provider file can be mapped, otherwise
+     * it is read into a direct buffer. The image is read from disk, do not call it on the main thread.
+     *
+     * @param context             context.
+     * @param config              settings the picker was launched with.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @return read-only buffer with the original bytes of the image, or null if it could not be read.
+     */
+    @Nullable
+    public static ByteBuffer getImageBufferFromResult(Context context, Config config, int requestCode,
+                                                      int resultCode, Intent imageReturnedIntent) {
+        Log.i(TAG, "getImageBufferFromResult() called with: " + "resultCode = [" + resultCode + "]");
+        if (!isPickResult(context, config, requestCode, resultCode)) {
+            return null;
+        }
+        boolean isCamera = isCamera(context, config, imageReturnedIntent);
+        Uri selectedImage = getSelectedImage(context, config, imageReturnedIntent, isCamera);
+        Log.i(TAG, "selectedImage: " + selectedImage);
+        try {
+            if (isCamera) {
+                return ImageUtils.mapPicture(getCameraFile(context, config));
+            }
+            return ImageUtils.mapPicture(context, selectedImage);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Called after launching the picker with the same values of Activity.getImageFromResult
+     * in order to resolve the result and identify the image, see {@link RecentImageIndex}.
+     * The image is read from disk, do not call it on the main thread.
+     *
+     * @param context             context.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @return fingerprint of the image, or null if it could not be read.
+     */
+    @Nullable
+    public static ImageFingerprint getFingerprintFromResult(Context context, int requestCode, int resultCode,
+                                                            Intent imageReturnedIntent) {
+        Config config = restoreDefaultConfig(context, requestCode);
+        return getFingerprintFromResult(context, config, requestCode, resultCode, imageReturnedIntent);
+    }
+
+    /**
+     * Called after launching the picker with {@link #pickImage(Activity, Config)}
+     * in order to resolve the result and identify the image, see {@link RecentImageIndex}.
+     * Only a tiny subsampled version of the image is decoded, so it is much faster than loading it.
+     * The image is read from disk, do not call it on the main thread.
+     *
+     * @param context             context.
+     * @param config              settings the picker was launched with.
+     * @param requestCode         used to identify the pick image action.
+     * @param resultCode          -1 means the result is OK.
+     * @param imageReturnedIntent returned intent where is the image data.
+     * @return fingerprint of the image, or null if it could not be read.
+     */
+    @Nullable
+    public static ImageFingerprint getFingerprintFromResult(Context context, Config config, int requestCode,
+                                                            int resultCode, Intent imageReturnedIntent) {
+        Log.i(TAG, "getFingerprintFromResult() called with: " + "resultCode = [" + resultCode + "]");
+        ByteBuffer bytes = getImageBufferFromResult(context, config, requestCode, resultCode, imageReturnedIntent);
+        if (bytes == null) {
+            return null;
+        }
+        boolean isCamera = isCamera(context, config, imageReturnedIntent);
+        Uri selectedImage = getSelectedImage(context, config, imageReturnedIntent, isCamera);
+        try {
+            return ImageFingerprint.compute(context, selectedImage, bytes);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /*
+    GETTERS AND SETTERS
+     */
+
+    public static void setMinQuality(int minWidthQuality, int minHeightQuality) {
+        synchronized (ImagePicker.class) {
+            mDefaultConfig = mDefaultConfig.newBuilder().setMinQuality(minWidthQuality, minHeightQuality).build();
+        }
+    }
+
+    /**
+     * @return settings used by the methods which do not take a config.
+     */
+    public static Config getDefaultConfig() {
+        return mDefaultConfig;
+    }
+
+    /**
+     * Reuse the bitmaps of the given pool to decode the picked images. Return the images you
+     * do not need anymore to the pool to avoid allocating new ones on the next picks.
+     *
+     * @param bitmapPool pool of bitmaps, or null to stop pooling.
+     */
+    public static void setBitmapPool(@Nullable BitmapPool bitmapPool) {
+        mBitmapPool = bitmapPool;
+    }
+
+    /**
+     * @return pool used to decode the picked images, or null if there is none.
+     */
+    @Nullable
+    public static BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * Keep the decoded images in the given cache, so loading the same image again with the
+     * same target size returns immediately. Cached bitmaps must not be recycled.
+     *
+     * @param memoryCache cache of decoded images, or null to stop caching.
+     */
+    public static void setMemoryCache(@Nullable BitmapMemoryCache memoryCache) {
+        mMemoryCache = memoryCache;
+    }
+
+    /**
+     * @return cache of the decoded images, or null if there is none.
+     */
+    @Nullable
+    public static BitmapMemoryCache getMemoryCache() {
+        return mMemoryCache;
+    }
+
+    /**
+     * Report how long each stage of loading a picked image takes, such as {@link LogMetrics}.
+     * Nothing is measured when there are no metrics.
+     *
+     * @param metrics receiver of the measurements, or null to stop measuring.
+     */
+    public static void setMetrics(@Nullable ImagePickerMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * @return receiver of the measurements, or null if there is none.
+     */
+    @Nullable
+    public static ImagePickerMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Set the budget of the disk cache where {@link #getImagePathFromResult} saves the images.
+     * When it is exceeded, the least recently used images are deleted.
+     *
+     * @param maxSizeBytes max size of the cache, 0 to disable it.
+     */
+    public static void setDiskCacheSize(long maxSizeBytes) {
+        ImageDiskCache.setMaxSize(maxSizeBytes);
+    }
+
+    /**
+     * Delete all the images saved in the disk cache.
+     *
+     * @param context context.
+     */
+    public static void clearDiskCache(Context context) {
+        ImageDiskCache.clear(context);
+    }
+
+    /**
+     * Get the settings the picker was launched with by the methods which do not take a config.
+     * If the process was killed while the picker was open, the default settings were reset,
+     * so they are restored from the journal of pending picks. Picks launched with their own
+     * config are left in the journal, they are resolved with that config.
+     */
+    private static Config restoreDefaultConfig(Context context, int requestCode) {
+        synchronized (ImagePicker.class) {
+            Config pending = PendingPicks.removeDefault(context, requestCode);
+            if (pending != null) {
+                // The pick was launched with the default settings, which the same result
+                // may be resolved with by several methods
+                mDefaultConfig = pending;
+            }
+            return mDefaultConfig;
+        }
+    }
+
+    private static Config getDefaultConfig(Context context, int requestCode, TargetSize targetSize) {
+        return restoreDefaultConfig(context, requestCode).newBuilder().setTargetSize(targetSize).build();
+    }
+
+    /**
+     * Settings of a pick, from launching the picker to decoding the picked images. Configs are
+     * immutable, so pickers with different settings can run at the same time without sharing
+     * any state. Launch the picker and resolve its result with the same config:
+     * <pre>
+     * ImagePicker.Config config = new ImagePicker.Config.Builder()
+     *         .setRequestCode(AVATAR_REQUEST_CODE)
+     *         .setTargetSize(TargetSize.exact(512, 512))
+     *         .build();
+     * ImagePicker.pickImage(activity, config);
+     * ...
+     * ImagePicker.getImageFromResultAsync(activity, config, requestCode, resultCode, data, listener);
+     * </pre>
+     */
+    public static final class Config {
+
+        /**
+         * Settings used when none are given.
+         */
+        public static final Config DEFAULT = new Builder().build();
+
+        private final int requestCode;
+        @Nullable
+        private final String chooserTitle;
+        private final boolean galleryOnly;
+        private final boolean allowMultiple;
+        private final TargetSize targetSize;
+
+        private Config(Builder builder) {
+            this.requestCode = builder.requestCode;
+            this.chooserTitle = builder.chooserTitle;
+            this.galleryOnly = builder.galleryOnly;
+            this.allowMultiple = builder.allowMultiple;
+            this.targetSize = builder.targetSize;
+        }
+
+        public int getRequestCode() {
+            return requestCode;
+        }
+
+        /**
+         * @return title of the picker dialog, or null for the default one.
+         */
+        @Nullable
+        public String getChooserTitle() {
+            return chooserTitle;
+        }
+
+        public boolean isGalleryOnly() {
+            return galleryOnly;
+        }
+
+        public boolean isAllowMultiple() {
+            return allowMultiple;
+        }
+
+        public TargetSize getTargetSize() {
+            return targetSize;
+        }
+
+        /**
+         * @return builder initialized with the settings of this config.
+         */
+        public Builder newBuilder() {
+            return new Builder(this);
+        }
+
+        String getChooserTitle(Context context) {
+            return chooserTitle != null ? chooserTitle : context.getString(R.string.pick_image_intent_text);
+        }
+
+        /**
+         * Builds immutable configs.
+         */
+        public static final class Builder {
+
+            private int requestCode = DEFAULT_REQUEST_CODE;
+            private String chooserTitle;
+            private boolean galleryOnly;
+            private boolean allowMultiple;
+            private TargetSize targetSize = TargetSize.minQuality(DEFAULT_MIN_WIDTH_QUALITY,
+                    DEFAULT_MIN_HEIGHT_QUALITY);
+
+            public Builder() {
+                // default settings
+            }
+
+            Builder(Config config) {
+                this.requestCode = config.requestCode;
+                this.chooserTitle = config.chooserTitle;
+                this.galleryOnly = config.galleryOnly;
+                this.allowMultiple = config.allowMultiple;
+                this.targetSize = config.targetSize;
+            }
+
+            /**
+             * @param requestCode request code that will be returned in result.
+             */
+            public Builder setRequestCode(int requestCode) {
+                this.requestCode = requestCode;
+                return this;
+            }
+
+            /**
+             * @param chooserTitle will appear on the picker dialog, null for the default one.
+             */
+            public Builder setChooserTitle(@Nullable String chooserTitle) {
+                this.chooserTitle = chooserTitle;
+                return this;
+            }
+
+            /**
+             * @param galleryOnly true to hide the camera apps.
+             */
+            public Builder setGalleryOnly(boolean galleryOnly) {
+                this.galleryOnly = galleryOnly;
+                return this;
+            }
+
+            /**
+             * @param allowMultiple true to let the gallery apps select several images.
+             */
+            public Builder setAllowMultiple(boolean allowMultiple) {
+                this.allowMultiple = allowMultiple;
+                return this;
+            }
+
+            /**
+             * Only subsample the images, keeping them over the given size.
+             * Same as {@link ImagePicker#setMinQuality(int, int)}.
+             */
+            public Builder setMinQuality(int minWidth, int minHeight) {
+                this.targetSize = TargetSize.minQuality(minWidth, minHeight);
+                return this;
+            }
+
+            /**
+             * @param targetSize size of the returned images.
+             */
+            public Builder setTargetSize(TargetSize targetSize) {
+                if (targetSize == null) {
+                    throw new IllegalArgumentException("targetSize == null");
+                }
+                this.targetSize = targetSize;
+                return this;
+            }
+
+            public Config build() {
+                return new Config(this);
+            }
+        }
+    }
+
+    /**
+     * Receives the images loaded in background.
+     */
+    public interface OnImageResultListener {
+
+        /**
+         * Called on the main thread when the image is ready.
+         *
+         * @param bitmap picked image, or null if it could not be decoded.
+         */
+        void onImageResult(@Nullable Bitmap bitmap);
+    }
+
+    /**
+     * Receives a low resolution preview of the image before the image itself. Pass it instead of
+     * {@link OnImageResultListener} to show something while a big image is being decoded.
+     */
+    public interface OnImagePreviewListener extends OnImageResultListener {
+
+        /**
+         * Called on the main thread with a preview of the image, before
+         * {@link #onImageResult(Bitmap)}. It is not called if the preview cannot be loaded.
+         *
+         * @param preview small version of the picked image, rotated as the final image.
+         */
+        void onImagePreview(Bitmap preview);
+    }
+
+    /**
+     * Receives the images of a multiple selection loaded in background.
+     */
+    public interface OnImagesResultListener {
+
+        /**
+         * Called on the main thread for each picked image, in the order they were picked.
+         *
+         * @param position position of the image in the selection.
+         * @param count    number of picked images.
+         * @param bitmap   picked image, or null if it could not be decoded.
+         */
+        void onImageResult(int position, int count, @Nullable Bitmap bitmap);
+
+        /**
+         * Called on the main thread after the last image.
+         */
+        void onComplete();
     }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.net.Uri;
+
+/**
+ * Receives the timings of each stage of loading a picked image. Install it with
+ * {@link ImagePicker#setMetrics(ImagePickerMetrics)}, nothing is measured when there is none.
+ * Methods are called on the thread which loads the image, keep them fast.
+ */
+public interface ImagePickerMetrics {
+
+    /**
+     * Stages of loading a picked image.
+     */
+    enum Stage {
+        /**
+         * Opening the stream of the image.
+         */
+        OPEN,
+        /**
+         * Reading the EXIF orientation and thumbnail.
+         */
+        EXIF,
+        /**
+         * Reading the size and mime type of the image.
+         */
+        BOUNDS,
+        /**
+         * Decoding the pixels. Images rotated 90 or 270 degrees are rotated while they are decoded.
+         */
+        DECODE,
+        /**
+         * Rotating the decoded image.
+         */
+        ROTATE,
+        /**
+         * Writing the image to a file.
+         */
+        SAVE
+    }
+
+    /**
+     * Called when a stage finishes. A stage can happen several times for the same image.
+     *
+     * @param uri           picked image.
+     * @param stage         finished stage.
+     * @param durationNanos duration of the stage in nanoseconds.
+     */
+    void onStage(Uri uri, Stage stage, long durationNanos);
+
+    /**
+     * Called when an image is loaded.
+     *
+     * @param uri           picked image.
+     * @param bytesRead     bytes read from the image, including the header read more than once.
+     * @param sampleSize    subsampling applied by the decoder.
+     * @param bitmapBytes   memory allocated for the pixels of the loaded bitmap.
+     * @param durationNanos duration of the whole load in nanoseconds.
+     */
+    void onImageLoaded(Uri uri, long bytesRead, int sampleSize, long bitmapBytes, long durationNanos);
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Bounded buffer between a thread which encodes an image and the thread which consumes it.
+ * The writer blocks while the buffer is full, so the encoder never runs ahead of the consumer
+ * by more than the buffer size. Encoding errors are thrown to the reader, and closing the
+ * reader makes the next write fail so the encoder stops.
+ */
+final class ImagePipe {
+
+    private final byte[] buffer;
+    private final Source source = new Source();
+    private final Sink sink = new Sink();
+
+    // Guarded by this
+    private int readPosition;
+    private int count;
+    private boolean writerClosed;
+    private boolean readerClosed;
+    private IOException failure;
+
+    ImagePipe(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        buffer = new byte[capacity];
+    }
+
+    /**
+     * @return stream which reads the bytes written to {@link #getSink()}.
+     */
+    InputStream getSource() {
+        return source;
+    }
+
+    /**
+     * @return stream which writes into the pipe, it must be closed with {@link #closeSink(boolean)}.
+     */
+    OutputStream getSink() {
+        return sink;
+    }
+
+    /**
+     * Finish writing. The reader gets the end of the stream if all the data was written,
+     * otherwise it gets an error once it has read what was written.
+     *
+     * @param complete false if the writer failed.
+     */
+    synchronized void closeSink(boolean complete) {
+        if (!complete && failure == null) {
+            failure = new IOException("The image could not be encoded");
+        }
+        writerClosed = true;
+        notifyAll();
+    }
+
+    private final class Source extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            synchronized (ImagePipe.this) {
+                while (count == 0 && !writerClosed && !readerClosed) {
+                    await();
+                }
+                if (readerClosed) {
+                    throw new IOException("Pipe closed");
+                }
+                if (count == 0) {
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    return -1;
+                }
+                int read = Math.min(length, count);
+                int first = Math.min(read, buffer.length - readPosition);
+                System.arraycopy(buffer, readPosition, bytes, offset, first);
+                System.arraycopy(buffer, 0, bytes, offset + first, read - first);
+                readPosition = (readPosition + read) % buffer.length;
+                count -= read;
+                ImagePipe.this.notifyAll();
+                return read;
+            }
+        }
+
+        @Override
+        public int available() {
+            synchronized (ImagePipe.this) {
+                return count;
+            }
+        }
+
+        /**
+         * Stop the writer and wait until it has closed the sink, so the encoded image is not used anymore.
+         */
+        @Override
+        public void close() throws IOException {
+            synchronized (ImagePipe.this) {
+                readerClosed = true;
+                ImagePipe.this.notifyAll();
+                while (!writerClosed) {
+                    await();
+                }
+            }
+        }
+    }
+
+    private final class Sink extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            synchronized (ImagePipe.this) {
+                while (length > 0) {
+                    while (count == buffer.length && !readerClosed) {
+                        await();
+                    }
+                    if (readerClosed) {
+                        throw new IOException("Pipe closed by the reader");
+                    }
+                    if (writerClosed) {
+                        throw new IOException("Pipe closed");
+                    }
+                    int writePosition = (readPosition + count) % buffer.length;
+                    int written = Math.min(length, buffer.length - count);
+                    int first = Math.min(written, buffer.length - writePosition);
+                    System.arraycopy(bytes, offset, buffer, writePosition, first);
+                    System.arraycopy(bytes, offset + first, buffer, 0, written - first);
+                    count += written;
+                    offset += written;
+                    length -= written;
+                    ImagePipe.this.notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            // closed by the owner with closeSink(), which knows if the image is complete
+        }
+    }
+
+    private void await() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the pipe");
+        }
+    }
+}
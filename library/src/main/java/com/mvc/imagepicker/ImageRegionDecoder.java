@@ -0,0 +1,302 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Decodes parts of a picked image, so very big images such as panoramas or scanned documents
+ * can be displayed and cropped at full resolution without loading them whole in memory.
+ * Coordinates refer to the image as displayed, after applying its EXIF orientation.
+ * <pre>
+ * ImageRegionDecoder decoder = ImageRegionDecoder.open(context, uri);
+ * try {
+ *     Bitmap crop = decoder.decodeRegion(new Rect(1000, 0, 3000, 2000), 1);
+ * } finally {
+ *     decoder.close();
+ * }
+ * </pre>
+ */
+public final class ImageRegionDecoder implements Closeable {
+
+    private static final String TAG = ImageRegionDecoder.class.getSimpleName();
+
+    private final BitmapRegionDecoder decoder;
+    @Nullable
+    private final ParcelFileDescriptor fileDescriptor;
+    private final int rotation;
+    private final int sourceWidth;
+    private final int sourceHeight;
+
+    private ImageRegionDecoder(BitmapRegionDecoder decoder, @Nullable ParcelFileDescriptor fileDescriptor,
+                               int rotation) {
+        this.decoder = decoder;
+        this.fileDescriptor = fileDescriptor;
+        this.rotation = rotation;
+        this.sourceWidth = decoder.getWidth();
+        this.sourceHeight = decoder.getHeight();
+    }
+
+    /**
+     * Open a picked image to decode regions of it.
+     *
+     * @param context context.
+     * @param uri     URI of the image, see {@link ImagePicker#getImageUrisFromResult}.
+     * @return decoder, it must be closed after use.
+     * @throws IOException if the image cannot be read or its format does not support regions (only JPEG
+     *                     and PNG, and WebP since Android N).
+     */
+    public static ImageRegionDecoder open(Context context, Uri uri) throws IOException {
+        ImageSource source = ImageSource.open(context, uri);
+        try {
+            int rotation = source.hasOrientation()
+                    ? source.getRotation() : ImageRotator.getRotationFromGallery(context, uri);
+            ParcelFileDescriptor fileDescriptor = openFileDescriptor(context, uri);
+            if (fileDescriptor != null) {
+                try {
+                    // Reads the file on demand instead of copying it all in memory
+                    return new ImageRegionDecoder(
+                            BitmapRegionDecoder.newInstance(fileDescriptor.getFileDescriptor(), false),
+                            fileDescriptor, rotation);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not decode regions from the file of " + uri, e);
+                    fileDescriptor.close();
+                }
+            }
+            return new ImageRegionDecoder(source.newRegionDecoder(), null, rotation);
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * @return width of the image once rotated.
+     */
+    public int getWidth() {
+        return isSideways() ? sourceHeight : sourceWidth;
+    }
+
+    /**
+     * @return height of the image once rotated.
+     */
+    public int getHeight() {
+        return isSideways() ? sourceWidth : sourceHeight;
+    }
+
+    /**
+     * @return degrees the image is rotated to be displayed.
+     */
+    public int getRotation() {
+        return rotation;
+    }
+
+    /**
+     * Decode a region of the image.
+     *
+     * @param region     region of the rotated image, it is clipped to the image bounds.
+     * @param sampleSize 1 for full resolution, 2 for half the size in each side, and so on.
+     * @return rotated region, or null if it could not be decoded.
+     */
+    @Nullable
+    public Bitmap decodeRegion(Rect region, int sampleSize) {
+        Rect clipped = new Rect(region.left, region.top, region.right, region.bottom);
+        if (!clipped.intersect(0, 0, getWidth(), getHeight())) {
+            return null;
+        }
+        Rect sourceRegion = toSourceRegion(clipped);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = Math.max(1, sampleSize);
+
+        BitmapPool pool = ImagePicker.getBitmapPool();
+        Bitmap reusable = null;
+        if (pool != null && BitmapPool.isSupported()) {
+            options.inMutable = true;
+            reusable = pool.get((sourceRegion.width() + options.inSampleSize - 1) / options.inSampleSize,
+                    (sourceRegion.height() + options.inSampleSize - 1) / options.inSampleSize,
+                    Bitmap.Config.ARGB_8888);
+            options.inBitmap = reusable;
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = decoder.decodeRegion(sourceRegion, options);
+        } catch (IllegalArgumentException e) {
+            if (reusable == null) {
+                throw e;
+            }
+            options.inBitmap = null;
+            pool.put(reusable);
+            bitmap = decoder.decodeRegion(sourceRegion, options);
+        }
+        if (bitmap == null || rotation == 0) {
+            return bitmap;
+        }
+        Bitmap rotated = ImageRotator.rotate(bitmap, rotation);
+        if (rotated != bitmap) {
+            BitmapPool.release(pool, bitmap);
+        }
+        return rotated;
+    }
+
+    /**
+     * Split a region of the image into tiles which are decoded one by one as the iterator advances.
+     * Only the tile returned by the iterator is held in memory; release it before moving to the next one.
+     *
+     * @param region     region of the rotated image to decode.
+     * @param tileSize   side of the tiles, in pixels of the full resolution image.
+     * @param sampleSize 1 for full resolution, 2 for half the size in each side, and so on.
+     * @return lazy iterator of tiles, row by row.
+     */
+    public Iterator<Tile> tiles(Rect region, int tileSize, int sampleSize) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("tileSize <= 0");
+        }
+        Rect clipped = new Rect(region.left, region.top, region.right, region.bottom);
+        if (!clipped.intersect(0, 0, getWidth(), getHeight())) {
+            clipped.set(0, 0, 0, 0);
+        }
+        return new TileIterator(clipped, tileSize, sampleSize);
+    }
+
+    @Override
+    public void close() {
+        decoder.recycle();
+        if (fileDescriptor != null) {
+            try {
+                fileDescriptor.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private boolean isSideways() {
+        return rotation == 90 || rotation == 270;
+    }
+
+    /**
+     * Map a region of the rotated image to the stored image.
+     */
+    private Rect toSourceRegion(Rect region) {
+        switch (rotation) {
+            case 90:
+                return new Rect(region.top, sourceHeight - region.right, region.bottom, sourceHeight - region.left);
+            case 180:
+                return new Rect(sourceWidth - region.right, sourceHeight - region.bottom,
+                        sourceWidth - region.left, sourceHeight - region.top);
+            case 270:
+                return new Rect(sourceWidth - region.bottom, region.left, sourceWidth - region.top, region.right);
+            default:
+                return region;
+        }
+    }
+
+    @Nullable
+    private static ParcelFileDescriptor openFileDescriptor(Context context, Uri uri) {
+        try {
+            return context.getContentResolver().openFileDescriptor(uri, "r");
+        } catch (FileNotFoundException | SecurityException e) {
+            // The provider only serves streams
+            return null;
+        }
+    }
+
+    /**
+     * Decoded part of the image.
+     */
+    public static final class Tile {
+
+        private final Rect bounds;
+        @Nullable
+        private final Bitmap bitmap;
+
+        Tile(Rect bounds, @Nullable Bitmap bitmap) {
+            this.bounds = bounds;
+            this.bitmap = bitmap;
+        }
+
+        /**
+         * @return region of the rotated image covered by the tile, in full resolution pixels.
+         */
+        public Rect getBounds() {
+            return bounds;
+        }
+
+        /**
+         * @return pixels of the tile, or null if they could not be decoded.
+         */
+        @Nullable
+        public Bitmap getBitmap() {
+            return bitmap;
+        }
+    }
+
+    private final class TileIterator implements Iterator<Tile> {
+
+        private final Rect region;
+        private final int tileSize;
+        private final int sampleSize;
+        private int left;
+        private int top;
+
+        TileIterator(Rect region, int tileSize, int sampleSize) {
+            this.region = region;
+            this.tileSize = tileSize;
+            this.sampleSize = sampleSize;
+            this.left = region.left;
+            this.top = region.top;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return top < region.bottom && left < region.right;
+        }
+
+        @Override
+        public Tile next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Rect bounds = new Rect(left, top, Math.min(left + tileSize, region.right),
+                    Math.min(top + tileSize, region.bottom));
+            left += tileSize;
+            if (left >= region.right) {
+                left = region.left;
+                top += tileSize;
+            }
+            return new Tile(bounds, decodeRegion(bounds, sampleSize));
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.app.Activity;
+import android.app.Application;
+import android.graphics.Bitmap;
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Handle of the images which are being loaded in background.
+ * Use it to cancel the load when the result is not needed anymore.
+ */
+public final class ImageRequest {
+
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private final List<Future<?>> futures = new CopyOnWriteArrayList<>();
+    // OnImageResultListener or OnImagesResultListener, released as soon as the request finishes
+    private volatile Object listener;
+    private Runnable unbinder;
+
+    ImageRequest(Object listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Cancel the load. The listener will not be called after this method returns
+     * and any bitmap decoded in the meantime is recycled,
+     * unless it is kept in the {@link BitmapMemoryCache}.
+     */
+    public void cancel() {
+        if (cancelled.compareAndSet(false, true)) {
+            for (Future<?> future : futures) {
+                // Decoding is not interruptible, just drop it if it has not started yet
+                future.cancel(false);
+            }
+            finish();
+        }
+    }
+
+    /**
+     * @return true if {@link #cancel()} was called.
+     */
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * @return true if the result was delivered or the request was cancelled.
+     */
+    public boolean isDone() {
+        return finished.get();
+    }
+
+    void addFuture(Future<?> future) {
+        futures.add(future);
+        if (isCancelled()) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * @return listener of the request, or null if it has already finished.
+     */
+    Object getListener() {
+        return isCancelled() ? null : listener;
+    }
+
+    /**
+     * Deliver the result to the listener. Must be called on the main thread.
+     */
+    void deliver(Bitmap bitmap) {
+        ImagePicker.OnImageResultListener target = (ImagePicker.OnImageResultListener) getListener();
+        if (target == null) {
+            if (bitmap != null) {
+                ImagePicker.discard(bitmap);
+            }
+            return;
+        }
+        finish();
+        target.onImageResult(bitmap);
+    }
+
+    /**
+     * Deliver the preview of the image, if the request is still waiting for it.
+     * Must be called on the main thread.
+     */
+    void deliverPreview(Bitmap preview) {
+        Object target = getListener();
+        if (!(target instanceof ImagePicker.OnImagePreviewListener)) {
+            ImagePicker.discard(preview);
+            return;
+        }
+        ((ImagePicker.OnImagePreviewListener) target).onImagePreview(preview);
+    }
+
+    /**
+     * Cancel automatically this request when the activity is destroyed.
+     */
+    void bindTo(final Activity activity) {
+        final Application application = activity.getApplication();
+        final Application.ActivityLifecycleCallbacks callbacks = new ActivityDestroyedCallbacks(activity);
+        application.registerActivityLifecycleCallbacks(callbacks);
+        unbinder = new Runnable() {
+            @Override
+            public void run() {
+                application.unregisterActivityLifecycleCallbacks(callbacks);
+            }
+        };
+    }
+
+    /**
+     * Cancel automatically this request when the fragment is destroyed.
+     */
+    void bindTo(final Fragment fragment) {
+        final FragmentManager fragmentManager = fragment.getFragmentManager();
+        if (fragmentManager == null) {
+            return;
+        }
+        final FragmentManager.FragmentLifecycleCallbacks callbacks = new FragmentManager.FragmentLifecycleCallbacks() {
+            @Override
+            public void onFragmentDestroyed(FragmentManager fm, Fragment f) {
+                if (f == fragment) {
+                    cancel();
+                }
+            }
+        };
+        fragmentManager.registerFragmentLifecycleCallbacks(callbacks, false);
+        unbinder = new Runnable() {
+            @Override
+            public void run() {
+                fragmentManager.unregisterFragmentLifecycleCallbacks(callbacks);
+            }
+        };
+    }
+
+    /**
+     * Release the listener and stop watching the lifecycle.
+     */
+    void finish() {
+        if (finished.compareAndSet(false, true)) {
+            listener = null;
+            ImageExecutor.postToMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (unbinder != null) {
+                        unbinder.run();
+                        unbinder = null;
+                    }
+                }
+            });
+        }
+    }
+
+    private final class ActivityDestroyedCallbacks implements Application.ActivityLifecycleCallbacks {
+
+        private final Activity activity;
+
+        ActivityDestroyedCallbacks(Activity activity) {
+            this.activity = activity;
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity destroyed) {
+            if (destroyed == activity) {
+                cancel();
+            }
+        }
+
+        @Override
+        public void onActivityCreated(Activity a, Bundle savedInstanceState) {
+            // not needed
+        }
+
+        @Override
+        public void onActivityStarted(Activity a) {
+            // not needed
+        }
+
+        @Override
+        public void onActivityResumed(Activity a) {
+            // not needed
+        }
+
+        @Override
+        public void onActivityPaused(Activity a) {
+            // not needed
+        }
+
+        @Override
+        public void onActivityStopped(Activity a) {
+            // not needed
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity a, Bundle outState) {
+            // not needed
+        }
+    }
+}
@@ -19,15 +19,23 @@ package com.mvc.imagepicker;
 import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.net.Uri;
+import android.os.Build;
 import android.provider.MediaStore;
+import android.support.annotation.Nullable;
+import android.support.media.ExifInterface;
 import android.util.Log;
 
+import java.io.IOException;
 import java.io.InputStream;
 
-import android.media.ExifInterface;
-
 
 /**
  * Author: Mario Velasco Casquero
@@ -53,53 +61,65 @@ public final class ImageRotator {
      */
     public static int getRotation(Context context, Uri imageUri, boolean fromCamera) {
         int rotation;
-        if (fromCamera) {
-            rotation = getRotationFromCamera(context, imageUri);
+        int orientation = readOrientation(context, imageUri);
+        if (orientation != ExifOrientationReader.ORIENTATION_UNDEFINED || fromCamera) {
+            rotation = getRotationFromExif(orientation);
         } else {
+            // Images edited in the gallery may keep their rotation in the MediaStore only
             rotation = getRotationFromGallery(context, imageUri);
         }
-        Log.i(TAG, "Image rotation: " + rotation);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Image rotation: " + rotation);
+        }
         return rotation;
     }
 
-    private static int getRotationFromCamera(Context context, Uri imageFile) {
-        int rotate = 0;
+    private static int readOrientation(Context context, Uri imageUri) {
+        InputStream inputStream = null;
         try {
-
-            ExifInterface exif = null;
-            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.N) {
-                context.getContentResolver().notifyChange(imageFile, null);
-                InputStream inputStream = context.getContentResolver().openInputStream(imageFile);
-                exif = new ExifInterface(inputStream);
-            } else {
-               exif = new ExifInterface(imageFile.getPath());
+            inputStream = context.getContentResolver().openInputStream(imageUri);
+            if (inputStream != null) {
+                return ExifOrientationReader.read(inputStream, Long.MAX_VALUE);
             }
-            int orientation = exif.getAttributeInt(
-                    ExifInterface.TAG_ORIENTATION,
-                    ExifInterface.ORIENTATION_NORMAL);
-
-            switch (orientation) {
-                case ExifInterface.ORIENTATION_ROTATE_270:
-                    rotate = 270;
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_180:
-                    rotate = 180;
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_90:
-                    rotate = 90;
-                    break;
-                default:
-                    rotate = 0;
-                    break;
-            }
-        } catch (Exception e) {
+        } catch (IOException | SecurityException e) {
             e.printStackTrace();
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return ExifOrientationReader.ORIENTATION_UNDEFINED;
+    }
+
+    /**
+     * Get rotation degrees from an EXIF orientation value.
+     *
+     * @param orientation value of the EXIF orientation tag.
+     * @return degrees of rotation.
+     */
+    static int getRotationFromExif(int orientation) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return 270;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return 90;
+            default:
+                return 0;
         }
-        return rotate;
     }
 
-    private static int getRotationFromGallery(Context context, Uri imageUri) {
+    static int getRotationFromGallery(Context context, Uri imageUri) {
         int result = 0;
+        if (!MediaStore.AUTHORITY.equals(imageUri.getAuthority())) {
+            // Other providers do not have the orientation column
+            return result;
+        }
         String[] columns = {MediaStore.Images.Media.ORIENTATION};
         Cursor cursor = null;
         try {
@@ -122,12 +142,196 @@ public final class ImageRotator {
      * Rotate image X degrees.
      */
     public static Bitmap rotate(Bitmap bitmap, int degrees) {
+        return rotate(bitmap, degrees, false);
+    }
+
+    /**
+     * Rotate image X degrees.
+     *
+     * @param bitmap       image to rotate.
+     * @param degrees      degrees of rotation.
+     * @param recycleInput true to recycle the given image as soon as the rotated one is created.
+     * @return rotated image.
+     */
+    public static Bitmap rotate(Bitmap bitmap, int degrees, boolean recycleInput) {
         if (bitmap != null && degrees != 0) {
             Matrix matrix = new Matrix();
             matrix.postRotate(degrees);
-            bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+            Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+            if (recycleInput && rotated != bitmap) {
+                bitmap.recycle();
+            }
+            bitmap = rotated;
         }
         return bitmap;
     }
 
+    /**
+     * Decode the image with the rotation already applied, without keeping two full size
+     * images in memory at the same time.
+     * <ul>
+     * <li>180º: the decoded image is flipped in place, row by row.</li>
+     * <li>90º and 270º: the image is decoded in horizontal strips which are drawn rotated
+     * into the final image. If the format does not support region decoding, it is decoded
+     * and rotated as a whole.</li>
+     * </ul>
+     *
+     * @param source  image to decode.
+     * @param options decode options, only the sample size, the density scale and the config
+     *                are used for strips.
+     * @param degrees degrees of rotation.
+     * @param pool    pool to take the decoded bitmaps from, or null to allocate new ones.
+     * @return rotated image.
+     */
+    static Bitmap decodeRotated(ImageSource source, BitmapFactory.Options options, int degrees,
+                                @Nullable BitmapPool pool) throws IOException {
+        Bitmap bitmap;
+        switch (degrees) {
+            case 90:
+            case 270:
+                long decodeBegin = PickTrace.begin(source.getTrace());
+                bitmap = decodeRotatedStrips(source, options, degrees, pool);
+                if (bitmap != null) {
+                    // Decoded and rotated at the same time
+                    PickTrace.end(source.getTrace(), ImagePickerMetrics.Stage.DECODE, decodeBegin);
+                } else {
+                    bitmap = source.decode(options, pool);
+                    if (bitmap != null) {
+                        logPeakMemory("after decoding", 2L * bitmap.getByteCount());
+                        long rotateBegin = PickTrace.begin(source.getTrace());
+                        Bitmap rotated = rotate(bitmap, degrees, false);
+                        if (rotated != bitmap) {
+                            BitmapPool.release(pool, bitmap);
+                        }
+                        bitmap = rotated;
+                        PickTrace.end(source.getTrace(), ImagePickerMetrics.Stage.ROTATE, rotateBegin);
+                    }
+                }
+                return bitmap;
+            case 180:
+                options.inMutable = true;
+                bitmap = source.decode(options, pool);
+                if (bitmap != null) {
+                    long rotateBegin = PickTrace.begin(source.getTrace());
+                    if (bitmap.isMutable()) {
+                        rotateInPlace180(bitmap);
+                        logPeakMemory("in place", bitmap.getByteCount() + 8L * bitmap.getWidth());
+                    } else {
+                        logPeakMemory("after decoding", 2L * bitmap.getByteCount());
+                        bitmap = rotate(bitmap, degrees, true);
+                    }
+                    PickTrace.end(source.getTrace(), ImagePickerMetrics.Stage.ROTATE, rotateBegin);
+                }
+                return bitmap;
+            default:
+                return source.decode(options, pool);
+        }
+    }
+
+    private static void rotateInPlace180(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] top = new int[width];
+        int[] bottom = new int[width];
+        for (int y = 0; y < (height + 1) / 2; y++) {
+            int mirrorY = height - 1 - y;
+            bitmap.getPixels(top, 0, width, 0, y, width, 1);
+            bitmap.getPixels(bottom, 0, width, 0, mirrorY, width, 1);
+            RotationPlan.rotateRows180(top, bottom);
+            bitmap.setPixels(bottom, 0, width, 0, y, width, 1);
+            bitmap.setPixels(top, 0, width, 0, mirrorY, width, 1);
+        }
+    }
+
+    /**
+     * @return rotated image, or null if the image does not support region decoding.
+     */
+    private static Bitmap decodeRotatedStrips(ImageSource source, BitmapFactory.Options options, int degrees,
+                                              @Nullable BitmapPool pool) {
+        BitmapRegionDecoder decoder;
+        try {
+            decoder = source.newRegionDecoder();
+        } catch (IOException e) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Region decoding not supported for " + source.getMimeType());
+            }
+            return null;
+        }
+        try {
+            int sampleSize = Math.max(1, options.inSampleSize);
+            int sourceWidth = decoder.getWidth();
+            int sourceHeight = decoder.getHeight();
+            int sampledWidth = Math.max(1, sourceWidth / sampleSize);
+            int sampledHeight = Math.max(1, sourceHeight / sampleSize);
+            Bitmap.Config config = options.inPreferredConfig != null
+                    ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+            // Region decoding does not support density scaling, it is applied when drawing the strips
+            float scale = 1f;
+            if (options.inScaled && options.inDensity > 0 && options.inTargetDensity > 0) {
+                scale = (float) options.inTargetDensity / options.inDensity;
+            }
+
+            // Width and height are swapped in the rotated image
+            int rotatedWidth = DecodeSizing.scale(sampledHeight, scale);
+            int rotatedHeight = DecodeSizing.scale(sampledWidth, scale);
+            Bitmap rotated = pool != null ? pool.get(rotatedWidth, rotatedHeight, config) : null;
+            if (rotated == null) {
+                rotated = Bitmap.createBitmap(rotatedWidth, rotatedHeight, config);
+            } else {
+                rotated.eraseColor(Color.TRANSPARENT);
+            }
+            int strips = RotationPlan.getStripCount(rotated.getByteCount());
+            int stripRows = RotationPlan.getStripRows(sampledHeight, strips, sampleSize);
+
+            Canvas canvas = new Canvas(rotated);
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            Matrix matrix = new Matrix();
+            Rect region = new Rect();
+            BitmapFactory.Options stripOptions = new BitmapFactory.Options();
+            stripOptions.inSampleSize = sampleSize;
+            stripOptions.inPreferredConfig = config;
+            long peakBytes = rotated.getByteCount();
+            Bitmap strip = null;
+            for (int top = 0; top < sourceHeight; top += stripRows) {
+                int bottom = Math.min(sourceHeight, top + stripRows);
+                region.set(0, top, sourceWidth, bottom);
+                // The last strip is shorter, it cannot reuse the pixels of the previous one
+                boolean reuseStrip = bottom - top == stripRows
+                        && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+                stripOptions.inBitmap = reuseStrip ? strip : null;
+                Bitmap decoded = decoder.decodeRegion(region, stripOptions);
+                if (strip != null && strip != decoded) {
+                    strip.recycle();
+                }
+                strip = decoded;
+                if (strip == null) {
+                    BitmapPool.release(pool, rotated);
+                    return null;
+                }
+                peakBytes = Math.max(peakBytes, (long) rotated.getByteCount() + strip.getByteCount());
+
+                matrix.setRotate(degrees);
+                matrix.postTranslate(RotationPlan.getStripTranslateX(degrees, top, sampleSize, sampledHeight),
+                        RotationPlan.getStripTranslateY(degrees, sampledWidth));
+                matrix.postScale(scale, scale);
+                canvas.drawBitmap(strip, matrix, paint);
+            }
+            if (strip != null) {
+                strip.recycle();
+            }
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                logPeakMemory("while decoding " + strips + " strips", peakBytes);
+            }
+            return rotated;
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    private static void logPeakMemory(String how, long peakBytes) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Image rotated " + how + ", peak bitmap memory: " + peakBytes / 1024 + " KB");
+        }
+    }
+
 }
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.support.media.ExifInterface;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Picked image opened only once. The header (bounds, mime type and EXIF orientation)
+ * is read from the beginning of the stream, which is then rewound to decode the pixels.
+ */
+final class ImageSource implements Closeable {
+
+    private static final String TAG = ImageSource.class.getSimpleName();
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    // Enough to hold the EXIF segment (max 64KB) and the frame header of any common image
+    private static final int HEADER_MARK_LIMIT = 512 * 1024;
+
+    private final Context context;
+    private final Uri uri;
+    @Nullable
+    private final PickTrace trace;
+    private BufferedInputStream stream;
+
+    private int width;
+    private int height;
+    private String mimeType;
+    private int orientation = ExifOrientationReader.ORIENTATION_UNDEFINED;
+    private byte[] exifThumbnail;
+
+    private ImageSource(Context context, Uri uri, @Nullable PickTrace trace) {
+        this.context = context;
+        this.uri = uri;
+        this.trace = trace;
+    }
+
+    /**
+     * Open the image and read its header.
+     *
+     * @param context context.
+     * @param uri     URI of the image.
+     * @return opened image, it must be closed after use.
+     * @throws IOException if the image cannot be read.
+     */
+    static ImageSource open(Context context, Uri uri) throws IOException {
+        return open(context, uri, false);
+    }
+
+    /**
+     * Open the image and read its header.
+     *
+     * @param context       context.
+     * @param uri           URI of the image.
+     * @param readThumbnail true to keep the thumbnail embedded in the EXIF, if there is one.
+     * @return opened image, it must be closed after use.
+     * @throws IOException if the image cannot be read.
+     */
+    static ImageSource open(Context context, Uri uri, boolean readThumbnail) throws IOException {
+        return open(context, uri, readThumbnail, null);
+    }
+
+    /**
+     * Open the image and read its header, measuring each stage.
+     *
+     * @param context       context.
+     * @param uri           URI of the image.
+     * @param readThumbnail true to keep the thumbnail embedded in the EXIF, if there is one.
+     * @param trace         trace of the load, or null to not measure it.
+     * @return opened image, it must be closed after use.
+     * @throws IOException if the image cannot be read.
+     */
+    static ImageSource open(Context context, Uri uri, boolean readThumbnail, @Nullable PickTrace trace)
+            throws IOException {
+        ImageSource source = new ImageSource(context, uri, trace);
+        try {
+            source.stream = source.openStream();
+            source.stream.mark(HEADER_MARK_LIMIT);
+            source.readHeader(readThumbnail);
+        } catch (IOException e) {
+            source.close();
+            throw e;
+        }
+        return source;
+    }
+
+    Uri getUri() {
+        return uri;
+    }
+
+    @Nullable
+    PickTrace getTrace() {
+        return trace;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * @return compressed thumbnail embedded in the EXIF, or null if there is none or it was not read.
+     */
+    @Nullable
+    byte[] getExifThumbnail() {
+        return exifThumbnail;
+    }
+
+    /**
+     * @return true if the image contains EXIF orientation.
+     */
+    boolean hasOrientation() {
+        return orientation != ExifOrientationReader.ORIENTATION_UNDEFINED;
+    }
+
+    /**
+     * @return degrees of rotation stored in the EXIF orientation.
+     */
+    int getRotation() {
+        return ImageRotator.getRotationFromExif(orientation);
+    }
+
+    /**
+     * Decode the image from the beginning of the stream.
+     *
+     * @param options decode options.
+     * @return bitmap or null if the image could not be decoded.
+     */
+    Bitmap decode(BitmapFactory.Options options) throws IOException {
+        rewind();
+        long begin = PickTrace.begin(trace);
+        Bitmap bitmap = BitmapFactory.decodeStream(new UnmarkableInputStream(stream), null, options);
+        PickTrace.end(trace, ImagePickerMetrics.Stage.DECODE, begin);
+        return bitmap;
+    }
+
+    /**
+     * Decode the image reusing a pooled bitmap if there is one of the decoded size.
+     *
+     * @param options decode options.
+     * @param pool    pool to take the bitmap from, or null to allocate a new one.
+     * @return bitmap or null if the image could not be decoded.
+     */
+    Bitmap decode(BitmapFactory.Options options, @Nullable BitmapPool pool) throws IOException {
+        if (pool == null) {
+            return decode(options);
+        }
+        // Decode mutable bitmaps so they can go back to the pool
+        options.inMutable = true;
+        Bitmap reusable = null;
+        if (BitmapPool.isSupported()) {
+            Bitmap.Config config = options.inPreferredConfig != null
+                    ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+            reusable = pool.get(getDecodedSize(width, options), getDecodedSize(height, options), config);
+            options.inBitmap = reusable;
+        }
+        try {
+            return decode(options);
+        } catch (IllegalArgumentException e) {
+            if (reusable == null) {
+                throw e;
+            }
+            Log.w(TAG, "Could not decode " + uri + " into a pooled bitmap", e);
+            options.inBitmap = null;
+            pool.put(reusable);
+            return decode(options);
+        }
+    }
+
+    /**
+     * Read the whole image from the beginning of the stream, for decoders which do not read streams.
+     *
+     * @return direct buffer with the encoded image.
+     */
+    ByteBuffer readFully() throws IOException {
+        rewind();
+        return ImageUtils.readFully(new UnmarkableInputStream(stream));
+    }
+
+    /**
+     * Create a region decoder from the beginning of the stream.
+     *
+     * @return region decoder, it must be recycled after use.
+     * @throws IOException if the image format does not support region decoding.
+     */
+    BitmapRegionDecoder newRegionDecoder() throws IOException {
+        rewind();
+        return BitmapRegionDecoder.newInstance(new UnmarkableInputStream(stream), false);
+    }
+
+    @Override
+    public void close() {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            stream = null;
+        }
+    }
+
+    private void readHeader(boolean readThumbnail) throws IOException {
+        long begin = PickTrace.begin(trace);
+        try {
+            // Only the orientation entry is parsed, within the bytes which can be rewound
+            orientation = ExifOrientationReader.read(new UnmarkableInputStream(stream), HEADER_MARK_LIMIT);
+            if (readThumbnail) {
+                rewind();
+                ExifInterface exif = new ExifInterface(new UnmarkableInputStream(stream));
+                if (exif.hasThumbnail() && exif.isThumbnailCompressed()) {
+                    exifThumbnail = exif.getThumbnailBytes();
+                }
+            }
+        } catch (IOException e) {
+            // Not all formats have EXIF, keep reading the bounds
+            Log.w(TAG, "Could not read EXIF of " + uri);
+        }
+        PickTrace.end(trace, ImagePickerMetrics.Stage.EXIF, begin);
+
+        rewind();
+        begin = PickTrace.begin(trace);
+        BitmapFactory.Options boundsOptions = new BitmapFactory.Options();
+        boundsOptions.inJustDecodeBounds = true;
+        BitmapFactory.decodeStream(new UnmarkableInputStream(stream), null, boundsOptions);
+        width = boundsOptions.outWidth;
+        height = boundsOptions.outHeight;
+        mimeType = boundsOptions.outMimeType;
+        PickTrace.end(trace, ImagePickerMetrics.Stage.BOUNDS, begin);
+    }
+
+    /**
+     * Get the size of a side of the image once decoded with the given options.
+     */
+    private static int getDecodedSize(int size, BitmapFactory.Options options) {
+        int sampleSize = Math.max(1, options.inSampleSize);
+        int sampledSize = (size + sampleSize - 1) / sampleSize;
+        if (options.inScaled && options.inDensity > 0 && options.inTargetDensity > 0) {
+            return DecodeSizing.scale(sampledSize, (float) options.inTargetDensity / options.inDensity);
+        }
+        return sampledSize;
+    }
+
+    /**
+     * Go back to the beginning of the image. The stream is only reopened when the previous
+     * read went beyond the mark limit.
+     */
+    private void rewind() throws IOException {
+        try {
+            stream.reset();
+        } catch (IOException e) {
+            Log.w(TAG, "Reopening " + uri + ", header is bigger than " + HEADER_MARK_LIMIT + " bytes");
+            close();
+            stream = openStream();
+        }
+        stream.mark(HEADER_MARK_LIMIT);
+    }
+
+    private BufferedInputStream openStream() throws IOException {
+        long begin = PickTrace.begin(trace);
+        InputStream inputStream = context.getContentResolver().openInputStream(uri);
+        if (inputStream == null) {
+            throw new FileNotFoundException("Could not open " + uri);
+        }
+        PickTrace.end(trace, ImagePickerMetrics.Stage.OPEN, begin);
+        return new BufferedInputStream(PickTrace.count(trace, inputStream), BUFFER_SIZE);
+    }
+
+    /**
+     * Prevents the decoders from moving our mark or closing the underlying stream.
+     */
+    private static final class UnmarkableInputStream extends FilterInputStream {
+
+        UnmarkableInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            // not supported
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+
+        @Override
+        public void close() {
+            // the owner closes the stream
+        }
+    }
+}
@@ -1,11 +1,26 @@
 package com.mvc.imagepicker;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 
 /**
  * Created by Anatol on 11/12/2016.
@@ -13,39 +28,561 @@ import java.io.IOException;
 
 public final class ImageUtils {
 
+    private static final String TAG = ImageUtils.class.getSimpleName();
+
     private static final String BASE_IMAGE_NAME = "i_prefix_";
+    private static final String DEFAULT_EXTENSION = "jpeg";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    // Initial size of the direct buffer of pictures which are only served as streams, doubled when full
+    private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+    // Encoded bytes which can wait for the consumer of compressToStream()
+    private static final int PIPE_BUFFER_SIZE = 64 * 1024;
+
+    // One buffer per decode thread, copies can run in parallel
+    private static final ThreadLocal<byte[]> COPY_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[COPY_BUFFER_SIZE];
+        }
+    };
+
+    // Lower qualities save very little and look broken
+    private static final int MIN_QUALITY = 10;
+    private static final int MAX_QUALITY_STEPS = 5;
+    private static final int MAX_DOWNSCALES = 3;
+    // A result over this fraction of the budget is good enough to stop searching
+    private static final float GOOD_ENOUGH_FRACTION = 0.9f;
+    // Compressed images bigger than this are not kept around between compressions
+    private static final int MAX_RETAINED_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    // Attempt and best result, swapped instead of copied
+    private static final ThreadLocal<CompressBuffer[]> COMPRESS_BUFFERS = new ThreadLocal<CompressBuffer[]>() {
+        @Override
+        protected CompressBuffer[] initialValue() {
+            return new CompressBuffer[]{new CompressBuffer(), new CompressBuffer()};
+        }
+    };
 
     private ImageUtils() {
     }
 
     public static String savePicture(Context context, Bitmap bitmap, String imageSuffix) {
         File savedImage = getTemporalFile(context, imageSuffix + ".jpeg");
+        try {
+            savePicture(bitmap, savedImage);
+        } finally {
+            if (!bitmap.isRecycled()) {
+                bitmap.recycle();
+            }
+        }
+        return savedImage.getAbsolutePath();
+    }
+
+    /**
+     * Save the bitmap as JPEG into the given file. The bitmap is not recycled.
+     *
+     * @return true if the picture was saved.
+     */
+    static boolean savePicture(Bitmap bitmap, File savedImage) {
         FileOutputStream fos = null;
+        boolean saved = false;
         if (savedImage.exists()) {
             savedImage.delete();
         }
         try {
             fos = new FileOutputStream(savedImage.getPath());
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 80, fos);
+            saved = bitmap.compress(Bitmap.CompressFormat.JPEG, 80, fos);
         } catch (java.io.IOException e) {
             e.printStackTrace();
         } finally {
-            if (!bitmap.isRecycled()) {
-                bitmap.recycle();
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    saved = false;
+                }
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * Compress the bitmap into at most the given number of bytes. The highest quality which fits
+     * is searched in a bounded number of steps, stopping as soon as a result is close enough to the
+     * budget. If not even the lowest quality fits, the image is scaled down. The bitmap is not recycled.
+     *
+     * @param bitmap     image to compress.
+     * @param format     format of the compressed image.
+     * @param maxQuality quality to try first, from 0 to 100.
+     * @param maxBytes   max size of the compressed image, 0 for no limit: the image is then compressed
+     *                   straight into the output, without buffering it.
+     * @param output     stream where the compressed image is written, it is not closed.
+     * @return how the image was compressed. It may be over the budget if it could not be reached.
+     * @throws IOException if the image cannot be compressed or written.
+     */
+    public static Compression compressToSize(Bitmap bitmap, Bitmap.CompressFormat format, int maxQuality,
+                                             long maxBytes, OutputStream output) throws IOException {
+        if (maxQuality < 0 || maxQuality > 100) {
+            throw new IllegalArgumentException("Invalid quality: " + maxQuality);
+        }
+        if (maxBytes <= 0) {
+            // Nothing to check, compress straight into the output
+            CountingOutputStream counter = new CountingOutputStream(output);
+            compress(bitmap, format, maxQuality, counter);
+            return new Compression((int) counter.getCount(), maxQuality, bitmap.getWidth(), bitmap.getHeight(), 1);
+        }
+        CompressBuffer[] buffers = COMPRESS_BUFFERS.get();
+        CompressBuffer attempt = buffers[0];
+        CompressBuffer best = buffers[1];
+        try {
+            int attempts = 1;
+            compress(bitmap, format, maxQuality, attempt);
+            if (attempt.size() <= maxBytes) {
+                attempt.writeTo(output);
+                return new Compression(attempt.size(), maxQuality, bitmap.getWidth(), bitmap.getHeight(), attempts);
+            }
+
+            // Highest quality which fits, PNG ignores the quality
+            int bestQuality = -1;
+            int lowestQuality = maxQuality;
+            long lowestSize = attempt.size();
+            int low = Math.min(MIN_QUALITY, maxQuality);
+            int high = maxQuality - 1;
+            boolean lossless = format == Bitmap.CompressFormat.PNG;
+            for (int step = 0; !lossless && step < MAX_QUALITY_STEPS && low <= high; step++) {
+                int quality = (low + high) >>> 1;
+                attempt.reset();
+                compress(bitmap, format, quality, attempt);
+                attempts++;
+                if (attempt.size() <= maxBytes) {
+                    bestQuality = quality;
+                    CompressBuffer swap = best;
+                    best = attempt;
+                    attempt = swap;
+                    if (best.size() >= maxBytes * GOOD_ENOUGH_FRACTION) {
+                        break;
+                    }
+                    low = quality + 1;
+                } else {
+                    lowestQuality = quality;
+                    lowestSize = attempt.size();
+                    high = quality - 1;
+                }
             }
+            if (bestQuality >= 0) {
+                best.writeTo(output);
+                return new Compression(best.size(), bestQuality, bitmap.getWidth(), bitmap.getHeight(), attempts);
+            }
+
+            // Not even the lowest quality fits, reduce the pixels
+            float scale = 1f;
+            Bitmap scaled = null;
+            try {
+                for (int i = 0; i < MAX_DOWNSCALES; i++) {
+                    // The compressed size is roughly proportional to the number of pixels
+                    scale *= (float) Math.sqrt((double) maxBytes / lowestSize) * GOOD_ENOUGH_FRACTION;
+                    if (scaled != null && scaled != bitmap) {
+                        scaled.recycle();
+                    }
+                    scaled = Bitmap.createScaledBitmap(bitmap, DecodeSizing.scale(bitmap.getWidth(), scale),
+                            DecodeSizing.scale(bitmap.getHeight(), scale), true);
+                    attempt.reset();
+                    compress(scaled, format, lowestQuality, attempt);
+                    attempts++;
+                    lowestSize = attempt.size();
+                    if (lowestSize <= maxBytes) {
+                        break;
+                    }
+                }
+                if (lowestSize > maxBytes) {
+                    Log.w(TAG, "Could not compress the image under " + maxBytes + " bytes");
+                }
+                attempt.writeTo(output);
+                return new Compression(attempt.size(), lowestQuality, scaled.getWidth(), scaled.getHeight(),
+                        attempts);
+            } finally {
+                if (scaled != null && scaled != bitmap) {
+                    scaled.recycle();
+                }
+            }
+        } finally {
+            attempt.release();
+            best.release();
+        }
+    }
+
+    /**
+     * Compress the bitmap in background into a stream. The consumer can read the first bytes,
+     * e.g. to upload them, while the rest of the image is being compressed, and nothing is written
+     * to disk. The encoder waits when the consumer is slower, so at most 64KB are buffered.
+     * Use {@link java.nio.channels.Channels#newChannel(InputStream)} to read it as a channel.
+     * <p>
+     * The bitmap must not be recycled until the stream is read to the end or closed.
+     * If the image cannot be compressed, reading the stream throws an {@link IOException}.
+     *
+     * @param bitmap  image to compress.
+     * @param format  format of the compressed image.
+     * @param quality quality hint for the compressor, 0-100.
+     * @return stream with the compressed image, it must be closed after use.
+     */
+    public static InputStream compressToStream(final Bitmap bitmap, final Bitmap.CompressFormat format,
+                                               final int quality) {
+        final ImagePipe pipe = new ImagePipe(PIPE_BUFFER_SIZE);
+        ImageExecutor.submitEncode(new Runnable() {
+            @Override
+            public void run() {
+                boolean complete = false;
+                try {
+                    complete = bitmap.compress(format, quality, pipe.getSink());
+                } finally {
+                    pipe.closeSink(complete);
+                }
+            }
+        });
+        return pipe.getSource();
+    }
+
+    private static void compress(Bitmap bitmap, Bitmap.CompressFormat format, int quality, OutputStream output)
+            throws IOException {
+        if (!bitmap.compress(format, quality, output)) {
+            throw new IOException("Could not compress the image as " + format);
+        }
+    }
+
+    /**
+     * Copy the original bytes of the picture to a temporal file, without decoding it.
+     * The copy keeps the quality and the EXIF metadata of the original image.
+     *
+     * @param context     context.
+     * @param uri         uri of the picture.
+     * @param imageSuffix suffix of the temporal file.
+     * @return path to the copied image, or null if it could not be read.
+     */
+    @Nullable
+    public static String copyPicture(Context context, Uri uri, String imageSuffix) {
+        File copiedImage = getTemporalFile(context, imageSuffix + "." + getExtension(context, uri));
+        return copyPicture(context, uri, copiedImage) ? copiedImage.getAbsolutePath() : null;
+    }
+
+    /**
+     * Copy the original bytes of the picture into the given file.
+     *
+     * @return true if the picture was copied.
+     */
+    static boolean copyPicture(Context context, Uri uri, File copiedImage) {
+        FileOutputStream fos = null;
+        boolean copied = false;
+        try {
+            fos = new FileOutputStream(copiedImage);
+            if (!transferFromFile(context, uri, fos.getChannel())) {
+                copyStream(context, uri, fos);
+            }
+            copied = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
             if (fos != null) {
                 try {
                     fos.close();
                 } catch (IOException e) {
                     e.printStackTrace();
+                    copied = false;
                 }
             }
+            if (!copied) {
+                copiedImage.delete();
+            }
         }
+        return copied;
+    }
 
-        return savedImage.getAbsolutePath();
+    /**
+     * Copy the picture channel to channel when the provider exposes a seekable file.
+     *
+     * @return false if nothing was copied because the picture is not backed by a file.
+     */
+    private static boolean transferFromFile(Context context, Uri uri, FileChannel out) throws IOException {
+        AssetFileDescriptor afd;
+        try {
+            afd = context.getContentResolver().openAssetFileDescriptor(uri, "r");
+        } catch (FileNotFoundException e) {
+            // The provider only serves streams
+            return false;
+        }
+        if (afd == null) {
+            return false;
+        }
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(afd.getFileDescriptor());
+            FileChannel in = fis.getChannel();
+            long start = afd.getStartOffset();
+            long length = afd.getLength();
+            try {
+                if (length == AssetFileDescriptor.UNKNOWN_LENGTH) {
+                    length = in.size() - start;
+                }
+                in.position(start);
+            } catch (IOException e) {
+                // Pipes and sockets cannot be positioned
+                return false;
+            }
+            if (length <= 0) {
+                return false;
+            }
+            long position = 0;
+            while (position < length) {
+                long transferred = out.transferFrom(in, position, length - position);
+                if (transferred <= 0) {
+                    throw new IOException("Unexpected end of " + uri + " after " + position + " bytes");
+                }
+                position += transferred;
+            }
+            return true;
+        } finally {
+            if (fis != null) {
+                fis.close();
+            }
+            afd.close();
+        }
+    }
+
+    private static void copyStream(Context context, Uri uri, FileOutputStream out) throws IOException {
+        InputStream is = context.getContentResolver().openInputStream(uri);
+        if (is == null) {
+            throw new FileNotFoundException("Could not open " + uri);
+        }
+        try {
+            byte[] buffer = COPY_BUFFER.get();
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Map the original bytes of the picture into memory, they are not copied into the Java heap.
+     *
+     * @param context context.
+     * @param uri     uri of the picture.
+     * @return read-only buffer, a {@link java.nio.MappedByteBuffer} when the picture is backed
+     * by a file, otherwise a direct buffer with the bytes read from the provider stream.
+     * @throws IOException if the picture cannot be read.
+     */
+    static ByteBuffer mapPicture(Context context, Uri uri) throws IOException {
+        ByteBuffer mapped = mapFile(context, uri);
+        return mapped != null ? mapped : readStream(context, uri);
+    }
+
+    /**
+     * Map the given picture file into memory.
+     *
+     * @return read-only buffer.
+     * @throws IOException if the file cannot be read.
+     */
+    static ByteBuffer mapPicture(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            FileChannel in = fis.getChannel();
+            // The mapping stays valid after the channel is closed
+            return in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Map the picture when the provider exposes a seekable file.
+     *
+     * @return read-only buffer, or null if the picture is not backed by a file.
+     */
+    @Nullable
+    private static ByteBuffer mapFile(Context context, Uri uri) throws IOException {
+        AssetFileDescriptor afd;
+        try {
+            afd = context.getContentResolver().openAssetFileDescriptor(uri, "r");
+        } catch (FileNotFoundException e) {
+            // The provider only serves streams
+            return null;
+        }
+        if (afd == null) {
+            return null;
+        }
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(afd.getFileDescriptor());
+            FileChannel in = fis.getChannel();
+            long start = afd.getStartOffset();
+            long length = afd.getLength();
+            try {
+                if (length == AssetFileDescriptor.UNKNOWN_LENGTH) {
+                    length = in.size() - start;
+                }
+                if (length <= 0) {
+                    return null;
+                }
+                return in.map(FileChannel.MapMode.READ_ONLY, start, length);
+            } catch (IOException e) {
+                // Pipes and sockets cannot be mapped
+                return null;
+            }
+        } finally {
+            if (fis != null) {
+                fis.close();
+            }
+            afd.close();
+        }
+    }
+
+    private static ByteBuffer readStream(Context context, Uri uri) throws IOException {
+        InputStream is = context.getContentResolver().openInputStream(uri);
+        if (is == null) {
+            throw new FileNotFoundException("Could not open " + uri);
+        }
+        try {
+            return readFully(is).asReadOnlyBuffer();
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Read the rest of the stream into a direct buffer. The stream is not closed.
+     *
+     * @return buffer positioned at the first byte read.
+     */
+    static ByteBuffer readFully(InputStream is) throws IOException {
+        ReadableByteChannel in = Channels.newChannel(is);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE);
+        while (in.read(buffer) != -1) {
+            if (!buffer.hasRemaining()) {
+                ByteBuffer bigger = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+                buffer.flip();
+                bigger.put(buffer);
+                buffer = bigger;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return file extension of the picture, based on its MIME type.
+     */
+    static String getExtension(Context context, Uri uri) {
+        String mimeType = context.getContentResolver().getType(uri);
+        String extension = mimeType != null ? MimeTypeMap.getSingleton().getExtensionFromMimeType(mimeType) : null;
+        return extension != null ? extension : DEFAULT_EXTENSION;
     }
 
     public static File getTemporalFile(Context context, String payload) {
         return new File(context.getExternalCacheDir(), BASE_IMAGE_NAME + payload);
     }
+
+    /**
+     * Result of {@link #compressToSize(Bitmap, Bitmap.CompressFormat, int, long, OutputStream)}.
+     */
+    public static final class Compression {
+
+        private final int bytes;
+        private final int quality;
+        private final int width;
+        private final int height;
+        private final int attempts;
+
+        Compression(int bytes, int quality, int width, int height, int attempts) {
+            this.bytes = bytes;
+            this.quality = quality;
+            this.width = width;
+            this.height = height;
+            this.attempts = attempts;
+        }
+
+        public int getBytes() {
+            return bytes;
+        }
+
+        public int getQuality() {
+            return quality;
+        }
+
+        /**
+         * @return width of the compressed image, smaller than the bitmap if it was scaled down.
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * @return height of the compressed image, smaller than the bitmap if it was scaled down.
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return number of times the image was compressed.
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + ", " + bytes + " bytes at quality " + quality + " after "
+                    + attempts + " attempts";
+        }
+    }
+
+    /**
+     * Growable buffer which keeps its array between compressions.
+     */
+    private static final class CompressBuffer extends ByteArrayOutputStream {
+
+        CompressBuffer() {
+            super(COPY_BUFFER_SIZE);
+        }
+
+        /**
+         * Forget the content, dropping the array if it grew too much to keep it around.
+         */
+        void release() {
+            if (buf.length > MAX_RETAINED_BUFFER_SIZE) {
+                buf = new byte[COPY_BUFFER_SIZE];
+            }
+            reset();
+        }
+    }
+
+    /**
+     * Counts the bytes written to the wrapped stream.
+     */
+    static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
 }
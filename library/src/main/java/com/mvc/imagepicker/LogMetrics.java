@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * Metrics which are written to logcat with the tag {@value #TAG}. Nothing is written unless
+ * the tag is loggable at the given priority, which can be changed at runtime with
+ * {@code adb shell setprop log.tag.ImagePickerMetrics DEBUG}.
+ */
+public final class LogMetrics implements ImagePickerMetrics {
+
+    public static final String TAG = "ImagePickerMetrics";
+
+    private static final long NANOS_PER_MICRO = 1000L;
+
+    private final int priority;
+
+    /**
+     * @param priority log priority, such as {@link Log#DEBUG}.
+     */
+    public LogMetrics(int priority) {
+        this.priority = priority;
+    }
+
+    @Override
+    public void onStage(Uri uri, Stage stage, long durationNanos) {
+        if (Log.isLoggable(TAG, priority)) {
+            Log.println(priority, TAG, stage + " " + durationNanos / NANOS_PER_MICRO + " us\t" + uri);
+        }
+    }
+
+    @Override
+    public void onImageLoaded(Uri uri, long bytesRead, int sampleSize, long bitmapBytes, long durationNanos) {
+        if (Log.isLoggable(TAG, priority)) {
+            Log.println(priority, TAG, "LOADED " + durationNanos / NANOS_PER_MICRO + " us\t"
+                    + "read: " + bytesRead / 1024 + " KB\t"
+                    + "sample size: " + sampleSize + "\t"
+                    + "bitmap: " + bitmapBytes / 1024 + " KB\t" + uri);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+/**
+ * Journal of the picks waiting for a result. The app process can be killed while the
+ * camera or gallery app is open, losing the settings of the pick. They are saved here
+ * before launching the picker and restored when the result arrives, so the result is
+ * still matched and the photo taken by the camera is not lost.
+ */
+final class PendingPicks {
+
+    private static final String TAG = PendingPicks.class.getSimpleName();
+
+    private static final String PREFS_NAME = "com.mvc.imagepicker.pending";
+    // Version 1 did not tell the picks launched with a config apart, its picks are ignored
+    private static final String VERSION = "2";
+    private static final int FIELD_COUNT = 8;
+    private static final String SEPARATOR = "|";
+    // Picks whose result never arrives are forgotten after a day
+    private static final long MAX_AGE_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private PendingPicks() {
+        // not called
+    }
+
+    /**
+     * Save the settings of a pick which is being launched.
+     *
+     * @param defaultConfig true if the pick was launched by the methods which do not take a config.
+     */
+    static void put(Context context, ImagePicker.Config config, boolean defaultConfig) {
+        // apply() is flushed before the app goes to background, which happens when the picker is launched
+        getPreferences(context).edit()
+                .putString(getKey(config.getRequestCode()),
+                        encode(new Pick(config, defaultConfig), System.currentTimeMillis()))
+                .apply();
+    }
+
+    /**
+     * Forget the pick which returned a result with the given request code.
+     */
+    static void remove(Context context, int requestCode) {
+        getPreferences(context).edit().remove(getKey(requestCode)).apply();
+    }
+
+    /**
+     * Take the settings of the pick which returned a result with the given request code, only if it
+     * was launched by the methods which do not take a config. Picks launched with a config are kept
+     * until they are resolved with it.
+     *
+     * @return settings of the pick, or null if no such pick was launched with that request code.
+     */
+    @Nullable
+    static ImagePicker.Config removeDefault(Context context, int requestCode) {
+        SharedPreferences preferences = getPreferences(context);
+        String key = getKey(requestCode);
+        String value = preferences.getString(key, null);
+        if (value == null) {
+            return null;
+        }
+        Pick pick = decode(value, System.currentTimeMillis());
+        if (pick == null) {
+            Log.w(TAG, "Ignoring expired or invalid pending pick: " + value);
+        } else if (!pick.defaultConfig) {
+            return null;
+        }
+        preferences.edit().remove(key).apply();
+        return pick != null ? pick.config : null;
+    }
+
+    /**
+     * @return compact representation of the pick, only the settings needed to resolve the result are kept.
+     */
+    static String encode(Pick pick, long savedAt) {
+        ImagePicker.Config config = pick.config;
+        String chooserTitle = config.getChooserTitle();
+        // The title goes last so it can contain separators, null is written as nothing after the separator
+        return VERSION + SEPARATOR + savedAt + SEPARATOR + pick.defaultConfig + SEPARATOR
+                + config.getRequestCode() + SEPARATOR + config.isGalleryOnly() + SEPARATOR
+                + config.isAllowMultiple() + SEPARATOR + config.getTargetSize().encode() + SEPARATOR
+                + (chooserTitle != null ? "=" + chooserTitle : "");
+    }
+
+    /**
+     * Read a pick written by {@link #encode(Pick, long)}. It does not call
+     * the Android APIs, so it can be unit tested.
+     *
+     * @return pick, or null if it is invalid or too old.
+     */
+    @Nullable
+    static Pick decode(String value, long now) {
+        String[] fields = value.split("\\" + SEPARATOR, FIELD_COUNT);
+        if (fields.length != FIELD_COUNT || !VERSION.equals(fields[0])) {
+            return null;
+        }
+        try {
+            long savedAt = Long.parseLong(fields[1]);
+            if (now - savedAt > MAX_AGE_MILLIS || savedAt > now) {
+                return null;
+            }
+            ImagePicker.Config config = new ImagePicker.Config.Builder()
+                    .setRequestCode(Integer.parseInt(fields[3]))
+                    .setGalleryOnly(Boolean.parseBoolean(fields[4]))
+                    .setAllowMultiple(Boolean.parseBoolean(fields[5]))
+                    .setTargetSize(TargetSize.decode(fields[6]))
+                    .setChooserTitle(fields[7].startsWith("=") ? fields[7].substring(1) : null)
+                    .build();
+            return new Pick(config, Boolean.parseBoolean(fields[2]));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String getKey(int requestCode) {
+        return String.valueOf(requestCode);
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Journaled pick.
+     */
+    static final class Pick {
+
+        final ImagePicker.Config config;
+        // Launched by the methods which do not take a config
+        final boolean defaultConfig;
+
+        Pick(ImagePicker.Config config, boolean defaultConfig) {
+            this.config = config;
+            this.defaultConfig = defaultConfig;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+import android.support.annotation.Nullable;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Measures the load of a picked image for the installed {@link ImagePickerMetrics}.
+ * When there are no metrics no trace is created, and the static methods do nothing
+ * with a null trace, so the load does not pay for the measurements.
+ */
+final class PickTrace {
+
+    private final ImagePickerMetrics metrics;
+    private final Uri uri;
+    private final long startNanos = System.nanoTime();
+    private long bytesRead;
+    private int sampleSize = 1;
+
+    private PickTrace(ImagePickerMetrics metrics, Uri uri) {
+        this.metrics = metrics;
+        this.uri = uri;
+    }
+
+    /**
+     * @return trace of the load of the given image, or null if no metrics are installed.
+     */
+    @Nullable
+    static PickTrace start(Uri uri) {
+        ImagePickerMetrics metrics = ImagePicker.getMetrics();
+        return metrics != null ? new PickTrace(metrics, uri) : null;
+    }
+
+    /**
+     * @return start time of a stage, to be passed to {@link #end(PickTrace, ImagePickerMetrics.Stage, long)}.
+     */
+    static long begin(@Nullable PickTrace trace) {
+        return trace != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Report a finished stage.
+     */
+    static void end(@Nullable PickTrace trace, ImagePickerMetrics.Stage stage, long beginNanos) {
+        if (trace != null) {
+            trace.metrics.onStage(trace.uri, stage, System.nanoTime() - beginNanos);
+        }
+    }
+
+    /**
+     * Report the loaded image.
+     */
+    static void finish(@Nullable PickTrace trace, Bitmap bitmap) {
+        if (trace != null) {
+            long bitmapBytes = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                    ? bitmap.getAllocationByteCount() : bitmap.getByteCount();
+            trace.metrics.onImageLoaded(trace.uri, trace.bytesRead, trace.sampleSize, bitmapBytes,
+                    System.nanoTime() - trace.startNanos);
+        }
+    }
+
+    static void setSampleSize(@Nullable PickTrace trace, int sampleSize) {
+        if (trace != null) {
+            trace.sampleSize = sampleSize;
+        }
+    }
+
+    /**
+     * @return stream which adds the bytes read to the trace, or the same stream if there is no trace.
+     */
+    static InputStream count(@Nullable PickTrace trace, InputStream in) {
+        return trace != null ? trace.new CountingInputStream(in) : in;
+    }
+
+    private final class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytesRead++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                bytesRead += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            bytesRead += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.Manifest;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Gallery and camera apps which can be offered by the picker. Querying the PackageManager
+ * takes tens of milliseconds per query on devices with many apps, so the apps are resolved
+ * once and kept until a package is installed, removed or changed.
+ */
+final class PickerTargets {
+
+    private static final String TAG = PickerTargets.class.getSimpleName();
+
+    private static volatile PickerTargets cached;
+    // Incremented on every package change, so a resolution racing with a change is not cached
+    private static volatile int generation;
+    private static Boolean manifestHasCameraPermission;
+    private static boolean receiverRegistered;
+
+    private final List<String> galleryPackages;
+    private final List<String> cameraPackages;
+
+    private PickerTargets(List<String> galleryPackages, List<String> cameraPackages) {
+        this.galleryPackages = galleryPackages;
+        this.cameraPackages = cameraPackages;
+    }
+
+    /**
+     * Get the apps which can pick an image. They are resolved on the first call,
+     * which can be done in background with {@link ImagePicker#warmUp(Context)}.
+     *
+     * @param context context.
+     * @return resolved apps.
+     */
+    static PickerTargets get(Context context) {
+        PickerTargets targets = cached;
+        if (targets == null) {
+            targets = resolve(context.getApplicationContext());
+        }
+        return targets;
+    }
+
+    /**
+     * @return package names of the gallery apps.
+     */
+    List<String> getGalleryPackages() {
+        return galleryPackages;
+    }
+
+    /**
+     * @return package names of the camera apps.
+     */
+    List<String> getCameraPackages() {
+        return cameraPackages;
+    }
+
+    /**
+     * Checks if the androidmanifest.xml contains the CAMERA permission.
+     * The manifest cannot change while the app is running, so it is only read once.
+     *
+     * @param context context.
+     * @return Boolean, indicating if the permission is present.
+     */
+    static synchronized boolean manifestContainsCameraPermission(Context context) {
+        if (manifestHasCameraPermission == null) {
+            manifestHasCameraPermission = appManifestContainsPermission(context, Manifest.permission.CAMERA);
+        }
+        return manifestHasCameraPermission;
+    }
+
+    private static synchronized PickerTargets resolve(Context context) {
+        if (cached != null) {
+            return cached;
+        }
+        registerReceiver(context);
+        int resolvedGeneration = generation;
+        PackageManager pm = context.getPackageManager();
+        PickerTargets targets = new PickerTargets(
+                queryPackages(pm, new Intent(Intent.ACTION_PICK, MediaStore.Images.Media.EXTERNAL_CONTENT_URI)),
+                queryPackages(pm, new Intent(MediaStore.ACTION_IMAGE_CAPTURE)));
+        if (resolvedGeneration == generation) {
+            cached = targets;
+        }
+        return targets;
+    }
+
+    private static List<String> queryPackages(PackageManager pm, Intent intent) {
+        Log.i(TAG, "Resolving apps of type: " + intent.getAction());
+        List<ResolveInfo> resInfo = pm.queryIntentActivities(intent, 0);
+        List<String> packages = new ArrayList<>(resInfo.size());
+        for (ResolveInfo resolveInfo : resInfo) {
+            packages.add(resolveInfo.activityInfo.packageName);
+        }
+        Log.i(TAG, "App packages: " + packages);
+        return Collections.unmodifiableList(packages);
+    }
+
+    private static boolean appManifestContainsPermission(Context context, String permission) {
+        PackageManager pm = context.getPackageManager();
+        try {
+            PackageInfo packageInfo = pm.getPackageInfo(context.getPackageName(), PackageManager.GET_PERMISSIONS);
+            if (packageInfo == null || packageInfo.requestedPermissions == null) {
+                return false;
+            }
+            for (String requestedPermission : packageInfo.requestedPermissions) {
+                if (permission.equals(requestedPermission)) {
+                    return true;
+                }
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Forget the resolved apps when any package is installed, removed or changed.
+     */
+    private static void registerReceiver(Context context) {
+        if (receiverRegistered) {
+            return;
+        }
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context c, Intent intent) {
+                Log.i(TAG, "Packages changed: " + intent.getAction());
+                generation++;
+                cached = null;
+            }
+        }, filter);
+        receiverRegistered = true;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Fingerprints of the images picked recently, kept in the shared preferences, to reject
+ * images which were already picked before decoding or uploading them again:
+ *
+ * <pre>
+ * ImageFingerprint fingerprint = ImagePicker.getFingerprintFromResult(context, requestCode, resultCode, data);
+ * if (fingerprint != null &amp;&amp; index.findDuplicate(fingerprint) == null) {
+ *     index.add(fingerprint);
+ *     // decode or upload the image
+ * }
+ * </pre>
+ * The preferences are read when the index is created, create it in background.
+ */
+public final class RecentImageIndex {
+
+    private static final String PREFS_NAME = "com.mvc.imagepicker.recent";
+    private static final String KEY_FINGERPRINTS = "fingerprints";
+    private static final String SEPARATOR = ",";
+
+    private final SharedPreferences preferences;
+    private final int capacity;
+    private final int maxDistance;
+    // Most recent first, guarded by this
+    private final LinkedList<ImageFingerprint> fingerprints = new LinkedList<>();
+
+    /**
+     * @param context  context.
+     * @param capacity number of recent images remembered.
+     */
+    public RecentImageIndex(Context context, int capacity) {
+        this(context, capacity, ImageFingerprint.DEFAULT_MAX_DISTANCE);
+    }
+
+    /**
+     * @param context     context.
+     * @param capacity    number of recent images remembered.
+     * @param maxDistance max number of different bits between the perceptual hashes of duplicates,
+     *                    0 to only match identical looking images.
+     */
+    public RecentImageIndex(Context context, int capacity, int maxDistance) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.preferences = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.capacity = capacity;
+        this.maxDistance = maxDistance;
+        String saved = preferences.getString(KEY_FINGERPRINTS, "");
+        for (String value : saved.split(SEPARATOR)) {
+            ImageFingerprint fingerprint = ImageFingerprint.decode(value);
+            if (fingerprint != null && fingerprints.size() < capacity) {
+                fingerprints.add(fingerprint);
+            }
+        }
+    }
+
+    /**
+     * @return fingerprint of the recent image which is a duplicate of the given one, the closest
+     * if there are several, or null if there is none.
+     */
+    @Nullable
+    public synchronized ImageFingerprint findDuplicate(ImageFingerprint fingerprint) {
+        ImageFingerprint closest = null;
+        for (ImageFingerprint recent : fingerprints) {
+            if (recent.isDuplicateOf(fingerprint, maxDistance)
+                    && (closest == null || recent.distanceTo(fingerprint) < closest.distanceTo(fingerprint))) {
+                closest = recent;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Remember the given image as the most recent one, the oldest one is forgotten if the index is full.
+     */
+    public synchronized void add(ImageFingerprint fingerprint) {
+        Iterator<ImageFingerprint> iterator = fingerprints.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().equals(fingerprint)) {
+                iterator.remove();
+            }
+        }
+        fingerprints.addFirst(fingerprint);
+        while (fingerprints.size() > capacity) {
+            fingerprints.removeLast();
+        }
+        save();
+    }
+
+    /**
+     * Forget all the recent images.
+     */
+    public synchronized void clear() {
+        fingerprints.clear();
+        save();
+    }
+
+    private void save() {
+        StringBuilder value = new StringBuilder();
+        for (ImageFingerprint fingerprint : fingerprints) {
+            if (value.length() > 0) {
+                value.append(SEPARATOR);
+            }
+            value.append(fingerprint.encode());
+        }
+        preferences.edit().putString(KEY_FINGERPRINTS, value.toString()).apply();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+/**
+ * Plans how {@link ImageRotator} rotates an image while decoding it: the horizontal strips in which
+ * the image is decoded for 90º and 270º, where each strip is drawn, and the row reversal used for 180º.
+ * It does not depend on Android, so the host benchmarks run the same code.
+ */
+final class RotationPlan {
+
+    // The smaller the strips are, the more times the region is decoded
+    static final int MAX_STRIPS = 8;
+    static final int STRIP_BYTES = 2 * 1024 * 1024;
+
+    private RotationPlan() {
+        // not called
+    }
+
+    /**
+     * Get the number of strips in which the image is decoded.
+     *
+     * @param rotatedBytes size in bytes of the rotated image.
+     * @return number of strips, between 1 and {@link #MAX_STRIPS}.
+     */
+    static int getStripCount(long rotatedBytes) {
+        return (int) Math.min(MAX_STRIPS, 1 + Math.max(0, rotatedBytes) / STRIP_BYTES);
+    }
+
+    /**
+     * Get the rows of the source image decoded in each strip. The last strip may be shorter.
+     *
+     * @param sampledHeight height of the subsampled image.
+     * @param strips        number of strips from {@link #getStripCount(long)}.
+     * @param sampleSize    sample size of the decoder.
+     * @return rows of the source image, a multiple of the sample size.
+     */
+    static int getStripRows(int sampledHeight, int strips, int sampleSize) {
+        return ((sampledHeight + strips - 1) / strips) * sampleSize;
+    }
+
+    /**
+     * Get the horizontal translation of a strip once rotated, before the density scale.
+     *
+     * @param degrees       90 or 270.
+     * @param top           first row of the strip in the source image.
+     * @param sampleSize    sample size of the decoder.
+     * @param sampledHeight height of the subsampled image.
+     * @return translation in pixels of the rotated image.
+     */
+    static float getStripTranslateX(int degrees, int top, int sampleSize, int sampledHeight) {
+        float offset = (float) top / sampleSize;
+        return degrees == 90 ? sampledHeight - offset : offset;
+    }
+
+    /**
+     * Get the vertical translation of a strip once rotated, before the density scale.
+     *
+     * @param degrees      90 or 270.
+     * @param sampledWidth width of the subsampled image.
+     * @return translation in pixels of the rotated image.
+     */
+    static float getStripTranslateY(int degrees, int sampledWidth) {
+        return degrees == 90 ? 0 : sampledWidth;
+    }
+
+    /**
+     * Rotate 180º a pair of mirrored rows: each one is reversed, then they are written in the place
+     * of the other one.
+     *
+     * @param top    pixels of a row from the top half, reversed on return.
+     * @param bottom pixels of the mirrored row from the bottom half, reversed on return.
+     */
+    static void rotateRows180(int[] top, int[] bottom) {
+        reverse(top);
+        reverse(bottom);
+    }
+
+    private static void reverse(int[] row) {
+        for (int i = 0, j = row.length - 1; i < j; i++, j--) {
+            int pixel = row[i];
+            row[i] = row[j];
+            row[j] = pixel;
+        }
+    }
+}
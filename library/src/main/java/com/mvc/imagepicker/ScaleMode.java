@@ -0,0 +1,39 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+/**
+ * How a picked image is scaled to the requested {@link TargetSize}.
+ * Images are never scaled up.
+ */
+public enum ScaleMode {
+
+    /**
+     * The whole image fits inside the requested size: width and height are the max size.
+     */
+    FIT,
+
+    /**
+     * The image covers the requested size: width and height are the min size.
+     */
+    FILL,
+
+    /**
+     * The image covers the requested size and it is center cropped to that exact size.
+     */
+    EXACT
+}
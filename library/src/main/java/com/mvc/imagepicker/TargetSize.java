@@ -0,0 +1,196 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+/**
+ * Size of the image returned by the picker. The image is first subsampled by the biggest
+ * power of two which keeps it over the requested size, and then scaled by the decoder
+ * to the final size.
+ */
+public final class TargetSize {
+
+    private final int width;
+    private final int height;
+    private final ScaleMode scaleMode;
+    private final boolean scaledInDecoder;
+    private final BitmapUsage usage;
+    private final boolean thumbnail;
+
+    private TargetSize(int width, int height, ScaleMode scaleMode, boolean scaledInDecoder) {
+        this(width, height, scaleMode, scaledInDecoder, BitmapUsage.EDIT, false);
+    }
+
+    private TargetSize(int width, int height, ScaleMode scaleMode, boolean scaledInDecoder, BitmapUsage usage,
+                       boolean thumbnail) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid target size: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.scaleMode = scaleMode;
+        this.scaledInDecoder = scaledInDecoder;
+        this.usage = usage;
+        this.thumbnail = thumbnail;
+    }
+
+    /**
+     * The image will fit inside the given size.
+     *
+     * @param maxWidth  max width in pixels.
+     * @param maxHeight max height in pixels.
+     * @return target size.
+     */
+    public static TargetSize fit(int maxWidth, int maxHeight) {
+        return new TargetSize(maxWidth, maxHeight, ScaleMode.FIT, true);
+    }
+
+    /**
+     * The image will cover the given size.
+     *
+     * @param minWidth  min width in pixels.
+     * @param minHeight min height in pixels.
+     * @return target size.
+     */
+    public static TargetSize fill(int minWidth, int minHeight) {
+        return new TargetSize(minWidth, minHeight, ScaleMode.FILL, true);
+    }
+
+    /**
+     * The image will have exactly the given size, center cropped if needed.
+     *
+     * @param width  width in pixels.
+     * @param height height in pixels.
+     * @return target size.
+     */
+    public static TargetSize exact(int width, int height) {
+        return new TargetSize(width, height, ScaleMode.EXACT, true);
+    }
+
+    /**
+     * Small preview which fits inside a square of the given side. The thumbnail embedded in the
+     * EXIF or the one generated by the MediaStore is used when it is big enough, which avoids
+     * reading the whole image. Those thumbnails may not reflect later edits of the image.
+     *
+     * @param size max width and height in pixels.
+     * @return target size.
+     */
+    public static TargetSize thumbnail(int size) {
+        return new TargetSize(size, size, ScaleMode.FIT, true, BitmapUsage.EDIT, true);
+    }
+
+    /**
+     * Size used by {@link ImagePicker#setMinQuality(int, int)}: the image is only subsampled,
+     * so it can be up to twice the min size in each side.
+     */
+    static TargetSize minQuality(int minWidth, int minHeight) {
+        return new TargetSize(Math.max(1, minWidth), Math.max(1, minHeight), ScaleMode.FILL, false);
+    }
+
+    /**
+     * Decode the image with the pixel format which best suits the given usage.
+     *
+     * @param usage what the image will be used for.
+     * @return target size with the given usage.
+     */
+    public TargetSize withUsage(BitmapUsage usage) {
+        return new TargetSize(width, height, scaleMode, scaledInDecoder, usage, thumbnail);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public ScaleMode getScaleMode() {
+        return scaleMode;
+    }
+
+    public BitmapUsage getUsage() {
+        return usage;
+    }
+
+    /**
+     * @return true if embedded or system thumbnails can be used instead of decoding the image.
+     */
+    boolean isThumbnail() {
+        return thumbnail;
+    }
+
+    boolean isScaledInDecoder() {
+        return scaledInDecoder;
+    }
+
+    /**
+     * @return compact representation which can be read back with {@link #decode(String)}.
+     */
+    String encode() {
+        return width + "," + height + "," + scaleMode.name() + "," + scaledInDecoder + "," + usage.name() + ","
+                + thumbnail;
+    }
+
+    /**
+     * Read a size written by {@link #encode()}.
+     *
+     * @throws IllegalArgumentException if the value is not a valid size.
+     */
+    static TargetSize decode(String value) {
+        String[] fields = value.split(",");
+        if (fields.length != 6) {
+            throw new IllegalArgumentException("Invalid target size: " + value);
+        }
+        return new TargetSize(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]),
+                ScaleMode.valueOf(fields[2]), Boolean.parseBoolean(fields[3]), BitmapUsage.valueOf(fields[4]),
+                Boolean.parseBoolean(fields[5]));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TargetSize)) {
+            return false;
+        }
+        TargetSize that = (TargetSize) o;
+        return width == that.width
+                && height == that.height
+                && scaleMode == that.scaleMode
+                && scaledInDecoder == that.scaledInDecoder
+                && usage == that.usage
+                && thumbnail == that.thumbnail;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = width;
+        result = 31 * result + height;
+        result = 31 * result + scaleMode.hashCode();
+        result = 31 * result + (scaledInDecoder ? 1 : 0);
+        result = 31 * result + usage.hashCode();
+        result = 31 * result + (thumbnail ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return scaleMode + " " + width + "x" + height + (scaledInDecoder ? "" : " (subsampled)") + " " + usage
+                + (thumbnail ? " (thumbnail)" : "");
+    }
+}
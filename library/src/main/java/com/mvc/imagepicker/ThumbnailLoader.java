@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+/**
+ * Loads small previews from the thumbnails which already exist for most camera photos:
+ * the one embedded in the EXIF and the one generated by the MediaStore. They are only
+ * used when they are big enough for the requested size and show the whole image.
+ */
+final class ThumbnailLoader {
+
+    private static final String TAG = ThumbnailLoader.class.getSimpleName();
+
+    private static final String MEDIA_DOCUMENTS_AUTHORITY = "com.android.providers.media.documents";
+    // Embedded thumbnails are often letterboxed to 4:3, skip them if the image has another aspect ratio
+    private static final float MAX_ASPECT_RATIO_DIFFERENCE = 0.05f;
+
+    private ThumbnailLoader() {
+        // not called
+    }
+
+    /**
+     * Load an existing thumbnail of the image.
+     *
+     * @param context    context.
+     * @param source     image opened reading its EXIF thumbnail.
+     * @param rotation   degrees to rotate the image.
+     * @param targetSize requested size.
+     * @return rotated thumbnail of the target size, or null if there is none big enough.
+     */
+    @Nullable
+    static Bitmap load(Context context, ImageSource source, int rotation, TargetSize targetSize) {
+        boolean swapSides = rotation == 90 || rotation == 270;
+        int sourceWidth = swapSides ? source.getHeight() : source.getWidth();
+        int sourceHeight = swapSides ? source.getWidth() : source.getHeight();
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            return null;
+        }
+        float scale = DecodeSizing.getScale(sourceWidth, sourceHeight, targetSize);
+        int targetWidth = DecodeSizing.scale(sourceWidth, scale);
+        int targetHeight = DecodeSizing.scale(sourceHeight, scale);
+        Bitmap.Config config = targetSize.getUsage().getConfig(source.getMimeType(), false);
+
+        Bitmap thumbnail = decodeExifThumbnail(source.getExifThumbnail(), config);
+        String origin = "EXIF";
+        if (!isUsable(thumbnail, swapSides, sourceWidth, sourceHeight, targetWidth, targetHeight)) {
+            recycle(thumbnail);
+            thumbnail = loadMediaStoreThumbnail(context, source.getUri(), config);
+            origin = "MediaStore";
+            if (!isUsable(thumbnail, swapSides, sourceWidth, sourceHeight, targetWidth, targetHeight)) {
+                recycle(thumbnail);
+                return null;
+            }
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Using " + origin + " thumbnail of " + thumbnail.getWidth() + "x" + thumbnail.getHeight());
+        }
+
+        // Thumbnails are stored without the rotation
+        int scaledWidth = swapSides ? targetHeight : targetWidth;
+        int scaledHeight = swapSides ? targetWidth : targetHeight;
+        if (thumbnail.getWidth() != scaledWidth || thumbnail.getHeight() != scaledHeight) {
+            Bitmap scaled = Bitmap.createScaledBitmap(thumbnail, scaledWidth, scaledHeight, true);
+            if (scaled != thumbnail) {
+                thumbnail.recycle();
+            }
+            thumbnail = scaled;
+        }
+        return ImageRotator.rotate(thumbnail, rotation, true);
+    }
+
+    @Nullable
+    private static Bitmap decodeExifThumbnail(@Nullable byte[] thumbnail, Bitmap.Config config) {
+        if (thumbnail == null) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = config;
+        return BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length, options);
+    }
+
+    @Nullable
+    private static Bitmap loadMediaStoreThumbnail(Context context, Uri uri, Bitmap.Config config) {
+        long id = getMediaStoreId(context, uri);
+        if (id < 0) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = config;
+        try {
+            return MediaStore.Images.Thumbnails.getThumbnail(context.getContentResolver(), id,
+                    MediaStore.Images.Thumbnails.MINI_KIND, options);
+        } catch (RuntimeException e) {
+            // The thumbnail could not be generated
+            Log.w(TAG, "Could not load the MediaStore thumbnail of " + uri, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return id of the image in the MediaStore, or -1 if it does not come from it.
+     */
+    private static long getMediaStoreId(Context context, Uri uri) {
+        try {
+            if (MediaStore.AUTHORITY.equals(uri.getAuthority())) {
+                return ContentUris.parseId(uri);
+            }
+            if (MEDIA_DOCUMENTS_AUTHORITY.equals(uri.getAuthority())
+                    && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                    && DocumentsContract.isDocumentUri(context, uri)) {
+                // Document ids look like "image:42"
+                String documentId = DocumentsContract.getDocumentId(uri);
+                return Long.parseLong(documentId.substring(documentId.indexOf(':') + 1));
+            }
+        } catch (NumberFormatException | UnsupportedOperationException e) {
+            Log.w(TAG, "Unexpected MediaStore URI " + uri);
+        }
+        return -1;
+    }
+
+    private static boolean isUsable(@Nullable Bitmap thumbnail, boolean swapSides, int sourceWidth,
+                                    int sourceHeight, int targetWidth, int targetHeight) {
+        if (thumbnail == null) {
+            return false;
+        }
+        int width = swapSides ? thumbnail.getHeight() : thumbnail.getWidth();
+        int height = swapSides ? thumbnail.getWidth() : thumbnail.getHeight();
+        float sourceRatio = (float) sourceWidth / sourceHeight;
+        float ratio = (float) width / height;
+        return width >= targetWidth && height >= targetHeight
+                && Math.abs(ratio - sourceRatio) <= sourceRatio * MAX_ASPECT_RATIO_DIFFERENCE;
+    }
+
+    private static void recycle(@Nullable Bitmap bitmap) {
+        if (bitmap != null) {
+            bitmap.recycle();
+        }
+    }
+}
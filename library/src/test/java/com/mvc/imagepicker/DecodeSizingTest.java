@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DecodeSizingTest {
+
+    @Test
+    public void fit_usesSmallestScale() throws Exception {
+        assertEquals(0.25f, DecodeSizing.getScale(4000, 3000, TargetSize.fit(1000, 1000)), 0.0001f);
+    }
+
+    @Test
+    public void fill_usesBiggestScale() throws Exception {
+        assertEquals(1000f / 3000, DecodeSizing.getScale(4000, 3000, TargetSize.fill(1000, 1000)), 0.0001f);
+    }
+
+    @Test
+    public void scale_neverUpscales() throws Exception {
+        assertEquals(1f, DecodeSizing.getScale(300, 200, TargetSize.exact(600, 600)), 0f);
+    }
+
+    @Test
+    public void sampleSize_isNotLimitedToEight() throws Exception {
+        assertEquals(64, DecodeSizing.getSampleSize(16000, 12000, 200, 150));
+    }
+
+    @Test
+    public void sampleSize_keepsImageOverDestination() throws Exception {
+        // 4000 / 8 = 500 is over 400, but 3000 / 8 = 375 is under 400
+        assertEquals(4, DecodeSizing.getSampleSize(4000, 3000, 400, 400));
+    }
+
+    @Test
+    public void sampleSize_isOneForSmallImages() throws Exception {
+        assertEquals(1, DecodeSizing.getSampleSize(300, 200, 600, 600));
+    }
+
+    @Test
+    public void minQuality_matchesLegacySampling() throws Exception {
+        TargetSize minQuality = TargetSize.minQuality(400, 400);
+        float scale = DecodeSizing.getScale(4000, 3000, minQuality);
+        int sampleSize = DecodeSizing.getSampleSize(4000, 3000,
+                DecodeSizing.scale(4000, scale), DecodeSizing.scale(3000, scale));
+        assertEquals(4, sampleSize);
+    }
+}
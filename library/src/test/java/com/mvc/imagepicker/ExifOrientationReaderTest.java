@@ -0,0 +1,269 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class ExifOrientationReaderTest {
+
+    private static final int ROTATE_90 = 6;
+    private static final int ROTATE_180 = 3;
+    private static final int ROTATE_270 = 8;
+
+    @Test
+    public void jpeg_readsBigEndianOrientation() throws Exception {
+        assertEquals(ROTATE_90, read(jpeg(tiff(false, ROTATE_90))));
+    }
+
+    @Test
+    public void jpeg_readsLittleEndianOrientation() throws Exception {
+        assertEquals(ROTATE_270, read(jpeg(tiff(true, ROTATE_270))));
+    }
+
+    @Test
+    public void jpeg_readsUnsortedEntries() throws Exception {
+        assertEquals(ROTATE_180, read(jpeg(tiff(true, ROTATE_180, false))));
+    }
+
+    @Test
+    public void jpeg_withoutExifIsUndefined() throws Exception {
+        assertEquals(ExifOrientationReader.ORIENTATION_UNDEFINED, read(jpeg(null)));
+    }
+
+    @Test
+    public void jpeg_stopsAtTheLimit() throws Exception {
+        byte[] image = jpeg(tiff(false, ROTATE_90));
+        assertEquals(ExifOrientationReader.ORIENTATION_UNDEFINED,
+                ExifOrientationReader.read(new ByteArrayInputStream(image), 32));
+    }
+
+    @Test
+    public void truncatedImageIsUndefined() throws Exception {
+        byte[] image = jpeg(tiff(false, ROTATE_90));
+        // SOI, APP0 and the beginning of the APP1 segment, before the orientation entry
+        byte[] truncated = new byte[2 + 9 + 4 + 6 + 12];
+        System.arraycopy(image, 0, truncated, 0, truncated.length);
+        assertEquals(ExifOrientationReader.ORIENTATION_UNDEFINED, read(truncated));
+    }
+
+    @Test
+    public void png_readsExifChunk() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'});
+        writeChunk(out, "IHDR", new byte[13]);
+        writeChunk(out, "eXIf", tiff(false, ROTATE_180));
+        assertEquals(ROTATE_180, read(bytes.toByteArray()));
+    }
+
+    @Test
+    public void webp_readsExifChunk() throws Exception {
+        byte[] tiff = tiff(true, ROTATE_90);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeBytes("RIFF");
+        out.writeInt(0);
+        out.writeBytes("WEBP");
+        out.writeBytes("VP8X");
+        out.writeInt(Integer.reverseBytes(10));
+        out.write(new byte[] {0x08, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+        out.writeBytes("VP8 ");
+        out.writeInt(Integer.reverseBytes(3));
+        out.write(new byte[4]);
+        out.writeBytes("EXIF");
+        out.writeInt(Integer.reverseBytes(tiff.length));
+        out.write(tiff);
+        assertEquals(ROTATE_90, read(bytes.toByteArray()));
+    }
+
+    @Test
+    public void heif_readsExifItem() throws Exception {
+        byte[] tiff = tiff(false, ROTATE_270);
+        ByteArrayOutputStream iinf = new ByteArrayOutputStream();
+        DataOutputStream iinfOut = new DataOutputStream(iinf);
+        iinfOut.writeInt(0);
+        iinfOut.writeShort(2);
+        iinfOut.write(box("infe", infe(1, "hvc1")));
+        iinfOut.write(box("infe", infe(2, "Exif")));
+
+        byte[] ftyp = box("ftyp", new byte[] {'h', 'e', 'i', 'c', 0, 0, 0, 0});
+        // Size of meta: header, full box, iinf and iloc with two items of one extent each
+        int ilocSize = 8 + 4 + 2 + 2 + 2 * (2 + 2 + 2 + 4 + 4);
+        int metaSize = 8 + 4 + 8 + iinf.size() + ilocSize;
+        int mdatOffset = ftyp.length + metaSize;
+        // The EXIF item is the offset of the TIFF header followed by the identifier and the TIFF data
+        int exifOffset = mdatOffset + 8 + 16;
+
+        ByteArrayOutputStream iloc = new ByteArrayOutputStream();
+        DataOutputStream ilocOut = new DataOutputStream(iloc);
+        ilocOut.writeInt(0);
+        ilocOut.writeByte(0x44);
+        ilocOut.writeByte(0x00);
+        ilocOut.writeShort(2);
+        writeIlocItem(ilocOut, 1, mdatOffset + 8, 16);
+        writeIlocItem(ilocOut, 2, exifOffset, 4 + 6 + tiff.length);
+
+        ByteArrayOutputStream meta = new ByteArrayOutputStream();
+        DataOutputStream metaOut = new DataOutputStream(meta);
+        metaOut.writeInt(0);
+        metaOut.write(box("iinf", iinf.toByteArray()));
+        metaOut.write(box("iloc", iloc.toByteArray()));
+
+        ByteArrayOutputStream mdat = new ByteArrayOutputStream();
+        DataOutputStream mdatOut = new DataOutputStream(mdat);
+        mdatOut.write(new byte[16]);
+        mdatOut.writeInt(6);
+        mdatOut.write(new byte[] {'E', 'x', 'i', 'f', 0, 0});
+        mdatOut.write(tiff);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(ftyp);
+        bytes.write(box("meta", meta.toByteArray()));
+        bytes.write(box("mdat", mdat.toByteArray()));
+        assertEquals(metaSize, box("meta", meta.toByteArray()).length);
+        assertEquals(ROTATE_270, read(bytes.toByteArray()));
+    }
+
+    private static int read(byte[] image) throws IOException {
+        return ExifOrientationReader.read(new ByteArrayInputStream(image), Long.MAX_VALUE);
+    }
+
+    /**
+     * @return TIFF structure whose IFD0 has a tag before and after the orientation.
+     */
+    private static byte[] tiff(boolean littleEndian, int orientation) {
+        return tiff(littleEndian, orientation, true);
+    }
+
+    /**
+     * @param sorted false to write the entries of IFD0 out of order, with the orientation last.
+     */
+    private static byte[] tiff(boolean littleEndian, int orientation, boolean sorted) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(littleEndian ? 'I' : 'M');
+        bytes.write(littleEndian ? 'I' : 'M');
+        writeShort(bytes, 42, littleEndian);
+        writeInt(bytes, 8, littleEndian);
+        writeShort(bytes, 3, littleEndian);
+        // Make, ASCII
+        writeEntry(bytes, 0x010f, 2, 4, 0, littleEndian);
+        if (sorted) {
+            // Orientation, SHORT stored in the first bytes of the value
+            writeEntry(bytes, 0x0112, 3, 1, orientation, littleEndian);
+        }
+        // X resolution, RATIONAL
+        writeEntry(bytes, 0x011a, 5, 1, 0, littleEndian);
+        if (!sorted) {
+            writeEntry(bytes, 0x0112, 3, 1, orientation, littleEndian);
+        }
+        writeInt(bytes, 0, littleEndian);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] jpeg(byte[] tiff) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(0xffd8);
+        // APP0 JFIF
+        out.writeShort(0xffe0);
+        out.writeShort(2 + 5);
+        out.write(new byte[] {'J', 'F', 'I', 'F', 0});
+        if (tiff != null) {
+            out.writeShort(0xffe1);
+            out.writeShort(2 + 6 + tiff.length);
+            out.write(new byte[] {'E', 'x', 'i', 'f', 0, 0});
+            out.write(tiff);
+        }
+        // Start of scan and some data
+        out.writeShort(0xffda);
+        out.writeShort(2 + 8);
+        out.write(new byte[8 + 32]);
+        out.writeShort(0xffd9);
+        return bytes.toByteArray();
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.writeBytes(type);
+        out.write(data);
+        out.writeInt(0);
+    }
+
+    private static byte[] box(String type, byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(8 + data.length);
+        out.writeBytes(type);
+        out.write(data);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] infe(int itemId, String itemType) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(2 << 24);
+        out.writeShort(itemId);
+        out.writeShort(0);
+        out.writeBytes(itemType);
+        out.writeByte(0);
+        return bytes.toByteArray();
+    }
+
+    private static void writeIlocItem(DataOutputStream out, int itemId, int offset, int length) throws IOException {
+        out.writeShort(itemId);
+        out.writeShort(0);
+        out.writeShort(1);
+        out.writeInt(offset);
+        out.writeInt(length);
+    }
+
+    private static void writeEntry(ByteArrayOutputStream bytes, int tag, int type, int count, int value,
+                                   boolean littleEndian) {
+        writeShort(bytes, tag, littleEndian);
+        writeShort(bytes, type, littleEndian);
+        writeInt(bytes, count, littleEndian);
+        writeShort(bytes, value, littleEndian);
+        writeShort(bytes, 0, littleEndian);
+    }
+
+    private static void writeShort(ByteArrayOutputStream bytes, int value, boolean littleEndian) {
+        if (littleEndian) {
+            bytes.write(value & 0xff);
+            bytes.write(value >> 8 & 0xff);
+        } else {
+            bytes.write(value >> 8 & 0xff);
+            bytes.write(value & 0xff);
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream bytes, int value, boolean littleEndian) {
+        if (littleEndian) {
+            writeShort(bytes, value & 0xffff, true);
+            writeShort(bytes, value >>> 16, true);
+        } else {
+            writeShort(bytes, value >>> 16, false);
+            writeShort(bytes, value & 0xffff, false);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ImageFingerprintTest {
+
+    private static final String DIGEST = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+    private static final String OTHER_DIGEST = "60303ae22b998861bce3b28f33eec1be758a213c86c93c076dbe9f558c11c752";
+
+    @Test
+    public void dHash_isSetWhenPixelsGetDarker() throws Exception {
+        int[] luminance = new int[9 * 8];
+        for (int i = 0; i < luminance.length; i++) {
+            luminance[i] = 255 - i % 9;
+        }
+        assertEquals(-1L, ImageFingerprint.dHash(luminance));
+        for (int i = 0; i < luminance.length; i++) {
+            luminance[i] = i % 9;
+        }
+        assertEquals(0L, ImageFingerprint.dHash(luminance));
+    }
+
+    @Test
+    public void dHash_ignoresBrightnessChanges() throws Exception {
+        int[] luminance = new int[9 * 8];
+        int[] brighter = new int[luminance.length];
+        for (int i = 0; i < luminance.length; i++) {
+            luminance[i] = (i * 37) % 200;
+            brighter[i] = luminance[i] + 40;
+        }
+        assertEquals(ImageFingerprint.dHash(luminance), ImageFingerprint.dHash(brighter));
+    }
+
+    @Test
+    public void perceptualHash_appliesTheRotation() throws Exception {
+        int width = 45;
+        int height = 32;
+        int[] pixels = pattern(width, height);
+        // The same image with its pixels rotated 90 degrees counterclockwise
+        int[] rotated = new int[pixels.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                rotated[(width - 1 - x) * height + y] = pixels[y * width + x];
+            }
+        }
+        assertEquals(ImageFingerprint.perceptualHash(pixels, width, height, 0),
+                ImageFingerprint.perceptualHash(rotated, height, width, 90));
+    }
+
+    @Test
+    public void perceptualHash_averagesEveryPixel() throws Exception {
+        int width = 45;
+        int height = 32;
+        int[] pixels = pattern(width, height);
+        // Single bright pixels which point sampling could pick, but which barely change the averages
+        int[] noisy = pixels.clone();
+        for (int i = 0; i < noisy.length; i += 7) {
+            noisy[i] = 0xffffffff;
+        }
+        int[] doubled = new int[pixels.length * 4];
+        for (int y = 0; y < height * 2; y++) {
+            for (int x = 0; x < width * 2; x++) {
+                doubled[y * width * 2 + x] = pixels[y / 2 * width + x / 2];
+            }
+        }
+        long hash = ImageFingerprint.perceptualHash(pixels, width, height, 0);
+        assertEquals(hash, ImageFingerprint.perceptualHash(doubled, width * 2, height * 2, 0));
+        assertTrue(Long.bitCount(hash ^ ImageFingerprint.perceptualHash(noisy, width, height, 0))
+                <= ImageFingerprint.DEFAULT_MAX_DISTANCE);
+    }
+
+    @Test
+    public void isDuplicateOf_matchesCloseHashesOrSameBytes() throws Exception {
+        ImageFingerprint image = new ImageFingerprint(0x0f0f0f0f0f0f0f0fL, DIGEST);
+        ImageFingerprint burstShot = new ImageFingerprint(0x0f0f0f0f0f0f0f0cL, OTHER_DIGEST);
+        ImageFingerprint otherImage = new ImageFingerprint(0xf0f0f0f0f0f0f0f0L, OTHER_DIGEST);
+        ImageFingerprint sameBytes = new ImageFingerprint(0xf0f0f0f0f0f0f0f0L, DIGEST);
+
+        assertEquals(2, image.distanceTo(burstShot));
+        assertTrue(image.isDuplicateOf(burstShot, ImageFingerprint.DEFAULT_MAX_DISTANCE));
+        assertFalse(image.isDuplicateOf(burstShot, 0));
+        assertFalse(image.isDuplicateOf(otherImage, ImageFingerprint.DEFAULT_MAX_DISTANCE));
+        assertTrue(image.isDuplicateOf(sameBytes, 0));
+    }
+
+    @Test
+    public void decode_readsEncodedFingerprint() throws Exception {
+        ImageFingerprint negative = new ImageFingerprint(0x8000000000000001L, DIGEST);
+        ImageFingerprint small = new ImageFingerprint(0x2aL, DIGEST);
+
+        assertEquals(negative, ImageFingerprint.decode(negative.encode()));
+        assertEquals(small, ImageFingerprint.decode(small.encode()));
+        assertNull(ImageFingerprint.decode(""));
+        assertNull(ImageFingerprint.decode("2a:" + DIGEST));
+        assertNull(ImageFingerprint.decode("zz00000000000000:" + DIGEST));
+    }
+
+    /**
+     * @return gray ARGB image whose cells of the hash grid have different brightness.
+     */
+    private static int[] pattern(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int gray = (x / 5 * 53 + y / 4 * 97) % 200;
+                pixels[y * width + x] = 0xff000000 | gray << 16 | gray << 8 | gray;
+            }
+        }
+        return pixels;
+    }
+}
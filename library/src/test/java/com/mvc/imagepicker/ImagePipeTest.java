@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ImagePipeTest {
+
+    @Test
+    public void read_returnsEverythingWritten() throws Exception {
+        final byte[] data = new byte[100 * 1024];
+        new Random(1).nextBytes(data);
+        final ImagePipe pipe = new ImagePipe(1000);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean complete = false;
+                try {
+                    for (int offset = 0; offset < data.length; offset += 777) {
+                        pipe.getSink().write(data, offset, Math.min(777, data.length - offset));
+                    }
+                    complete = true;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    pipe.closeSink(complete);
+                }
+            }
+        });
+        writer.start();
+
+        assertArrayEquals(data, readAll(pipe.getSource()));
+        writer.join();
+    }
+
+    @Test
+    public void write_blocksWhileTheBufferIsFull() throws Exception {
+        final ImagePipe pipe = new ImagePipe(10);
+        final CountDownLatch written = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pipe.getSink().write(new byte[15]);
+                    written.countDown();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    pipe.closeSink(true);
+                }
+            }
+        });
+        writer.start();
+
+        assertFalse(written.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(10, pipe.getSource().read(new byte[10]));
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        assertEquals(5, readAll(pipe.getSource()).length);
+        writer.join();
+    }
+
+    @Test
+    public void read_throwsWhenTheWriterFails() throws Exception {
+        ImagePipe pipe = new ImagePipe(10);
+        pipe.getSink().write(new byte[4]);
+        pipe.closeSink(false);
+
+        InputStream source = pipe.getSource();
+        assertEquals(4, source.read(new byte[10]));
+        try {
+            source.read();
+            fail("Incomplete image read without errors");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void close_stopsTheWriter() throws Exception {
+        final ImagePipe pipe = new ImagePipe(10);
+        final AtomicReference<IOException> error = new AtomicReference<>();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pipe.getSink().write(new byte[100]);
+                } catch (IOException e) {
+                    error.set(e);
+                } finally {
+                    pipe.closeSink(false);
+                }
+            }
+        });
+        writer.start();
+
+        pipe.getSource().close();
+        writer.join(5000);
+        assertTrue(error.get() != null);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[333];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
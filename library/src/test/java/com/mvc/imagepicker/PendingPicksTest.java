@@ -0,0 +1,73 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PendingPicksTest {
+
+    private static final long NOW = 1500000000000L;
+
+    @Test
+    public void decode_restoresEncodedConfig() throws Exception {
+        ImagePicker.Config config = new ImagePicker.Config.Builder()
+                .setRequestCode(777)
+                .setChooserTitle("Pick | crop")
+                .setAllowMultiple(true)
+                .setTargetSize(TargetSize.thumbnail(256).withUsage(BitmapUsage.PREVIEW))
+                .build();
+
+        PendingPicks.Pick restored = PendingPicks.decode(encode(config, false), NOW);
+
+        assertEquals(777, restored.config.getRequestCode());
+        assertEquals("Pick | crop", restored.config.getChooserTitle());
+        assertTrue(restored.config.isAllowMultiple());
+        assertEquals(config.getTargetSize(), restored.config.getTargetSize());
+        assertFalse(restored.defaultConfig);
+    }
+
+    @Test
+    public void decode_tellsDefaultConfigPicksApart() throws Exception {
+        assertTrue(PendingPicks.decode(encode(ImagePicker.Config.DEFAULT, true), NOW).defaultConfig);
+    }
+
+    @Test
+    public void decode_keepsNullChooserTitle() throws Exception {
+        assertNull(PendingPicks.decode(encode(ImagePicker.Config.DEFAULT, true), NOW).config.getChooserTitle());
+    }
+
+    @Test
+    public void decode_ignoresOldPicks() throws Exception {
+        assertNull(PendingPicks.decode(encode(ImagePicker.Config.DEFAULT, true), NOW + 2 * 24 * 60 * 60 * 1000L));
+    }
+
+    @Test
+    public void decode_ignoresInvalidValues() throws Exception {
+        assertNull(PendingPicks.decode("2|" + NOW + "|true|234|false|false|-1,10,FIT,true,EDIT,false|", NOW));
+        assertNull(PendingPicks.decode("1|" + NOW + "|234|false|false|400,400,FILL,false,EDIT,false|", NOW));
+        assertNull(PendingPicks.decode("3|" + NOW, NOW));
+    }
+
+    private static String encode(ImagePicker.Config config, boolean defaultConfig) {
+        return PendingPicks.encode(new PendingPicks.Pick(config, defaultConfig), NOW);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 Mario Velasco Casquero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mvc.imagepicker;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RotationPlanTest {
+
+    @Test
+    public void stripCount_growsWithTheImageUpToTheLimit() throws Exception {
+        assertEquals(1, RotationPlan.getStripCount(1024));
+        assertEquals(3, RotationPlan.getStripCount(2L * RotationPlan.STRIP_BYTES));
+        assertEquals(RotationPlan.MAX_STRIPS, RotationPlan.getStripCount(100L * RotationPlan.STRIP_BYTES));
+    }
+
+    @Test
+    public void stripRows_coverTheWholeImage() throws Exception {
+        // 1000 sampled rows in 3 strips of 334, in rows of the source image
+        int stripRows = RotationPlan.getStripRows(1000, 3, 4);
+        assertEquals(334 * 4, stripRows);
+        assertEquals(3, (4000 + stripRows - 1) / stripRows);
+    }
+
+    @Test
+    public void stripTranslation_placesTheStripsFromTheRightFor90() throws Exception {
+        assertEquals(750f, RotationPlan.getStripTranslateX(90, 0, 4, 750), 0f);
+        assertEquals(500f, RotationPlan.getStripTranslateX(90, 1000, 4, 750), 0f);
+        assertEquals(0f, RotationPlan.getStripTranslateY(90, 1000), 0f);
+    }
+
+    @Test
+    public void stripTranslation_placesTheStripsFromTheLeftFor270() throws Exception {
+        assertEquals(0f, RotationPlan.getStripTranslateX(270, 0, 4, 750), 0f);
+        assertEquals(250f, RotationPlan.getStripTranslateX(270, 1000, 4, 750), 0f);
+        assertEquals(1000f, RotationPlan.getStripTranslateY(270, 1000), 0f);
+    }
+
+    @Test
+    public void rotateRows180_reversesBothRows() throws Exception {
+        int[] top = {1, 2, 3};
+        int[] bottom = {4, 5, 6, 7};
+        RotationPlan.rotateRows180(top, bottom);
+        assertArrayEquals(new int[]{3, 2, 1}, top);
+        assertArrayEquals(new int[]{7, 6, 5, 4}, bottom);
+    }
+}